@@ -11,8 +11,7 @@ import sx.blah.discord.handle.impl.events.ReadyEvent;
 import sx.blah.discord.util.DiscordException;
 import sx.blah.discord.util.HTTP429Exception;
 
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
 
 public class Instance {
 
@@ -22,7 +21,8 @@ public class Instance {
     private String email;
     private String password;
     private String token;
-    private final AtomicBoolean reconnect = new AtomicBoolean(true);
+    private final ReconnectManager reconnectManager = new ReconnectManager(this::login, TimeUnit.SECONDS.toMillis(1),
+        TimeUnit.MINUTES.toMillis(5), TimeUnit.MINUTES.toMillis(1));
 
     public Instance(String email, String password) {
         this.email = email;
@@ -45,20 +45,12 @@ public class Instance {
     @EventSubscriber
     public void onReady(ReadyEvent event) {
         log.info("*** Discord bot armed ***");
+        reconnectManager.connected();
     }
 
     @EventSubscriber
     public void onDisconnect(DiscordDisconnectedEvent event) {
-        CompletableFuture.runAsync(() -> {
-            if (reconnect.get()) {
-                log.info("Reconnecting bot");
-                try {
-                    login();
-                } catch (DiscordException e) {
-                    log.warn("Failed to reconnect bot", e);
-                }
-            }
-        });
+        reconnectManager.disconnected();
     }
 
     @EventSubscriber
@@ -67,7 +59,7 @@ public class Instance {
     }
 
     public void terminate() {
-        reconnect.set(false);
+        reconnectManager.stop();
         try {
             client.logout();
         } catch (HTTP429Exception | DiscordException e) {
@@ -75,6 +67,10 @@ public class Instance {
         }
     }
 
+    public ReconnectManager getReconnectManager() {
+        return reconnectManager;
+    }
+
     public String getEmail() {
         return email;
     }
@@ -0,0 +1,192 @@
+package bootstrap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reconnects one attempt at a time with exponential backoff and full jitter: the n-th consecutive attempt waits a
+ * random time between zero and {@code min(max, base * 2^n)}. Disconnects reported while an attempt is scheduled or
+ * running are ignored. The backoff only starts over once a connection stayed up for the stable period, so a gateway
+ * that accepts logins and drops them right away is retried less and less often.
+ */
+public class ReconnectManager {
+
+    private static final Logger log = LoggerFactory.getLogger(ReconnectManager.class);
+
+    private final Connector connector;
+    private final long baseMillis;
+    private final long maxMillis;
+    private final long stableMillis;
+    private final ScheduledExecutorService executor;
+
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong ignored = new AtomicLong();
+    private final AtomicLong lastLatencyMillis = new AtomicLong(-1);
+    private final AtomicLong maxLatencyMillis = new AtomicLong(-1);
+
+    // guarded by this
+    private ScheduledFuture<?> pending;
+    private int consecutive;
+    private long disconnectedAt;
+    private long connectedAt;
+    private boolean stopped;
+
+    public interface Connector {
+        void connect() throws Exception;
+    }
+
+    /**
+     * @param baseMillis   upper bound of the first delay
+     * @param maxMillis    upper bound of any delay
+     * @param stableMillis how long a connection must last before the backoff starts over
+     */
+    public ReconnectManager(Connector connector, long baseMillis, long maxMillis, long stableMillis) {
+        this.connector = connector;
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.stableMillis = stableMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Record that the connection is up and ready, ending the current outage.
+     */
+    public synchronized void connected() {
+        long now = System.nanoTime();
+        connectedAt = now;
+        if (disconnectedAt != 0) {
+            long latency = TimeUnit.NANOSECONDS.toMillis(now - disconnectedAt);
+            lastLatencyMillis.set(latency);
+            maxLatencyMillis.accumulateAndGet(latency, Math::max);
+            reconnects.incrementAndGet();
+            log.info("Reconnected after {} ms and {} attempts ({} reconnects, {} attempts, {} failed, {} disconnects "
+                + "ignored, slowest {} ms so far)", latency, consecutive, getReconnects(), getAttempts(), getFailures(),
+                getIgnoredDisconnects(), getMaxLatencyMillis());
+            disconnectedAt = 0;
+        }
+    }
+
+    /**
+     * Schedule a reconnect unless one is already scheduled or running.
+     */
+    public synchronized void disconnected() {
+        if (stopped) {
+            return;
+        }
+        if (pending != null) {
+            ignored.incrementAndGet();
+            return;
+        }
+        long now = System.nanoTime();
+        if (connectedAt != 0 && now - connectedAt >= TimeUnit.MILLISECONDS.toNanos(stableMillis)) {
+            consecutive = 0;
+        }
+        connectedAt = 0;
+        if (disconnectedAt == 0) {
+            disconnectedAt = now;
+        }
+        schedule();
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        executor.shutdownNow();
+    }
+
+    // called with the lock held
+    private void schedule() {
+        long delay = nextDelay(consecutive);
+        log.info("Reconnecting in {} ms (attempt {})", delay, consecutive + 1);
+        pending = executor.schedule(this::attempt, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return a random delay between zero and the capped exponential bound for the given number of earlier attempts
+     */
+    long nextDelay(int previousAttempts) {
+        long bound = maxMillis;
+        if (previousAttempts < 63 && baseMillis <= maxMillis >> previousAttempts) {
+            bound = baseMillis << previousAttempts;
+        }
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    private void attempt() {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            consecutive++;
+        }
+        attempts.incrementAndGet();
+        boolean success;
+        try {
+            connector.connect();
+            success = true;
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.warn("Reconnect attempt failed: {}", e.toString());
+            success = false;
+        }
+        synchronized (this) {
+            pending = null;
+            if (!success && !stopped) {
+                schedule();
+            }
+        }
+    }
+
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return outages that ended with the connection ready again
+     */
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    /**
+     * @return disconnects reported while an attempt was already scheduled or running
+     */
+    public long getIgnoredDisconnects() {
+        return ignored.get();
+    }
+
+    /**
+     * @return time from the start of the last outage until the connection was ready, or -1 if none ended yet
+     */
+    public long getLastLatencyMillis() {
+        return lastLatencyMillis.get();
+    }
+
+    public long getMaxLatencyMillis() {
+        return maxLatencyMillis.get();
+    }
+
+    public synchronized int getConsecutiveAttempts() {
+        return consecutive;
+    }
+}
@@ -0,0 +1,144 @@
+package bootstrap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class ReconnectManagerTest {
+
+    private ReconnectManager manager;
+
+    @After
+    public void stop() {
+        if (manager != null) {
+            manager.stop();
+        }
+    }
+
+    @Test
+    public void runsOneAttemptAtATime() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        manager = new ReconnectManager(() -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            entered.countDown();
+            try {
+                release.await();
+            } finally {
+                running.decrementAndGet();
+            }
+            manager.connected();
+        }, 1, 1, 60000);
+
+        manager.disconnected();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            manager.disconnected();
+        }
+        release.countDown();
+        await(() -> manager.getReconnects() == 1);
+
+        assertEquals(1, maxRunning.get());
+        assertEquals(1, manager.getAttempts());
+        assertEquals(10, manager.getIgnoredDisconnects());
+    }
+
+    @Test
+    public void delaysGrowAndAreCapped() {
+        manager = new ReconnectManager(() -> {
+        }, 100, 1000, 60000);
+        long[] bounds = {100, 200, 400, 800, 1000, 1000};
+        for (int attempts = 0; attempts < bounds.length; attempts++) {
+            long longest = 0;
+            for (int i = 0; i < 10000; i++) {
+                long delay = manager.nextDelay(attempts);
+                assertTrue("delay " + delay + " after " + attempts + " attempts",
+                    delay >= 0 && delay <= bounds[attempts]);
+                longest = Math.max(longest, delay);
+            }
+            // full jitter spreads delays over the whole range, so the longest of many comes close to the bound
+            assertTrue("longest delay " + longest + " after " + attempts + " attempts",
+                longest > bounds[attempts] * 9 / 10);
+        }
+        for (int attempts : new int[]{10, 62, 63, 1000}) {
+            long delay = manager.nextDelay(attempts);
+            assertTrue("delay " + delay + " after " + attempts + " attempts", delay >= 0 && delay <= 1000);
+        }
+    }
+
+    @Test
+    public void retriesUntilConnected() {
+        AtomicInteger calls = new AtomicInteger();
+        manager = new ReconnectManager(() -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new IllegalStateException("gateway unavailable");
+            }
+            manager.connected();
+        }, 1, 2, 60000);
+
+        manager.disconnected();
+        await(() -> manager.getReconnects() == 1);
+
+        assertEquals(3, manager.getAttempts());
+        assertEquals(2, manager.getFailures());
+        assertEquals(3, manager.getConsecutiveAttempts());
+        assertTrue(manager.getLastLatencyMillis() >= 0);
+    }
+
+    @Test
+    public void keepsBackingOffWhenConnectionDropsBeforeStablePeriod() {
+        manager = new ReconnectManager(() -> manager.connected(), 1, 2, 60000);
+
+        manager.disconnected();
+        await(() -> manager.getReconnects() == 1);
+        manager.disconnected();
+        await(() -> manager.getReconnects() == 2);
+
+        assertEquals(2, manager.getConsecutiveAttempts());
+    }
+
+    @Test
+    public void startsOverAfterStablePeriod() {
+        manager = new ReconnectManager(() -> manager.connected(), 1, 2, 0);
+
+        manager.disconnected();
+        await(() -> manager.getReconnects() == 1);
+        manager.disconnected();
+        await(() -> manager.getReconnects() == 2);
+
+        assertEquals(1, manager.getConsecutiveAttempts());
+    }
+
+    @Test
+    public void ignoresDisconnectsAfterStop() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        manager = new ReconnectManager(calls::incrementAndGet, 1, 1, 60000);
+
+        manager.stop();
+        manager.disconnected();
+        Thread.sleep(50);
+
+        assertEquals(0, calls.get());
+        assertEquals(0, manager.getAttempts());
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.nanoTime() - deadline < 0);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package audio;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU spent turning a minute of audio in each {@link OutputFormat} into the 48 kHz stereo PCM Discord4J sends, the
+ * work every playing stream does on top of Opus encoding. The sample is made by ffmpeg with the options the bot uses,
+ * from a generated tone by default, or from a real track with -p file=path/to/track. Dividing the score by the 60000
+ * ms of audio gives the share of a core one stream keeps busy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AudioDecodeBenchmark {
+
+    private static final AudioFormat DISCORD_FORMAT =
+        new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 48000, 16, 2, 4, 48000, true);
+
+    @Param({"PCM", "MP3"})
+    private OutputFormat format;
+
+    @Param("")
+    private String file;
+
+    private byte[] sample;
+    private final byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(Arrays.asList("ffmpeg", "-hide_banner", "-nostats", "-loglevel",
+            "error"));
+        if (file.isEmpty()) {
+            command.addAll(Arrays.asList("-f", "lavfi", "-i", "sine=frequency=440:sample_rate=48000:duration=60",
+                "-ac", "2"));
+        } else {
+            command.addAll(Arrays.asList("-i", file, "-t", "60", "-vn"));
+        }
+        command.addAll(Arrays.asList(format.getFfmpegOptions().split(" ")));
+        command.add("-");
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        try (InputStream stream = process.getInputStream()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            sample = bytes.toByteArray();
+        }
+        if (process.waitFor() != 0 || sample.length == 0) {
+            throw new IOException("ffmpeg could not make a " + format + " sample");
+        }
+    }
+
+    @Benchmark
+    public long decode() throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream stream = toDiscordFormat(format.open(new ByteArrayInputStream(sample), sample.length))) {
+            long total = 0;
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                total += read;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Decode to PCM first, then resample where the installed providers can, as Discord4J does with a queued stream.
+     */
+    private static AudioInputStream toDiscordFormat(AudioInputStream stream) {
+        AudioFormat source = stream.getFormat();
+        if (source.matches(DISCORD_FORMAT)) {
+            return stream;
+        }
+        if (source.getEncoding() != AudioFormat.Encoding.PCM_SIGNED) {
+            stream = AudioSystem.getAudioInputStream(new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+                source.getSampleRate(), 16, source.getChannels(), source.getChannels() * 2, source.getSampleRate(),
+                true), stream);
+        }
+        return stream.getFormat().matches(DISCORD_FORMAT)
+            || !AudioSystem.isConversionSupported(DISCORD_FORMAT, stream.getFormat()) ? stream
+            : AudioSystem.getAudioInputStream(DISCORD_FORMAT, stream);
+    }
+}
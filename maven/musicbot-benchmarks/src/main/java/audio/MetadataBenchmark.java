@@ -0,0 +1,63 @@
+package audio;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Parsing of youtube-dl info files with Gson data binding against the streaming {@link MetadataReader}. The bundled
+ * sample is a 260 KB dump laid out like youtube-dl writes it: formats come right after the ID and title, and the
+ * thumbnail is added near the end, so the reader has to skip almost the whole file. Pass
+ * -p file=path/to/id.info.json to measure a real file instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataBenchmark {
+
+    @Param("")
+    private String file;
+
+    private final Gson gson = new Gson();
+    private String json;
+
+    @Setup
+    public void setup() throws IOException {
+        if (file.isEmpty()) {
+            try (InputStream stream = new GZIPInputStream(
+                MetadataBenchmark.class.getResourceAsStream("/info.json.gz"))) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
+                }
+                json = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+            }
+        } else {
+            json = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public Metadata gson() {
+        return gson.fromJson(new StringReader(json), Metadata.class);
+    }
+
+    @Benchmark
+    public Metadata metadataReader() throws IOException {
+        return MetadataReader.read(new StringReader(json));
+    }
+}
@@ -0,0 +1,57 @@
+package audio;
+
+import org.openjdk.jmh.annotations.*;
+import sx.blah.discord.util.audio.AudioPlayer;
+import util.Fakes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of whole playlists as the shuffle log does, against rendering a single !status page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaylistBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    private int tracks;
+
+    private List<AudioPlayer.Track> playlist;
+
+    @Setup
+    public void setup() {
+        playlist = new ArrayList<>(tracks);
+        for (int i = 0; i < tracks; i++) {
+            String id = Fakes.videoId(i);
+            AudioPlayer.Track track = new AudioPlayer.Track(new LazyAudioProvider(id, provider -> null, () -> {
+            }));
+            TrackInfo info = new TrackInfo(id);
+            if (i % 10 != 0) {
+                // some tracks are still unresolved
+                info = new TrackInfo(id, "Artist " + (i % 97) + " - Some Song Title " + i + " (Official Video)",
+                    60 + i % 540, null);
+            }
+            track.getMetadata().put(TrackInfo.KEY, info);
+            playlist.add(track);
+        }
+    }
+
+    @Benchmark
+    public String playlistToString() {
+        return StreamService.playlistToString(playlist);
+    }
+
+    @Benchmark
+    public String freshStatusPage() {
+        // worst case for the view: nothing rendered yet
+        PlaylistView view = new PlaylistView(StreamService::getSource, 100);
+        view.reorder(playlist);
+        return view.page(playlist, 1, 15).getText();
+    }
+}
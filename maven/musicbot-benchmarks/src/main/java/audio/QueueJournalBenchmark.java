@@ -0,0 +1,72 @@
+package audio;
+
+import org.openjdk.jmh.annotations.*;
+import util.Fakes;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restoring every guild's queue from the journal at startup, as {@link StreamService#restoreQueues} does before
+ * queueing the tracks. Each guild's file is written through {@link QueueJournal} the way a session would: the voice
+ * channel and volume, every track queued one by one, a few finished tracks and a playback position.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueJournalBenchmark {
+
+    @Param("1000")
+    private int guilds;
+
+    @Param("100")
+    private int entries;
+
+    private Path directory;
+    private QueueJournal journal;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("queue-journal");
+        journal = new QueueJournal(directory, Integer.MAX_VALUE);
+        for (int g = 0; g < guilds; g++) {
+            String guildId = String.valueOf(200000000000000000L + g);
+            journal.voiceChannel(guildId, String.valueOf(300000000000000000L + g));
+            journal.volume(guildId, 0.2f);
+            for (int i = 0; i < entries; i++) {
+                journal.enqueued(guildId, new TrackInfo(Fakes.videoId(g * entries + i),
+                    "Artist " + (i % 97) + " - Some Song Title " + i + " (Official Video)", 60 + i % 540, null));
+            }
+            for (int i = 0; i < entries / 10; i++) {
+                journal.finished(guildId);
+            }
+            journal.position(guildId, 93000);
+        }
+        journal.close();
+        if (journal.load().size() != guilds) {
+            throw new IllegalStateException("Journal is missing guilds");
+        }
+    }
+
+    @TearDown
+    public void deleteJournal() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public Map<String, QueueJournal.GuildQueue> load() throws IOException {
+        return journal.load();
+    }
+}
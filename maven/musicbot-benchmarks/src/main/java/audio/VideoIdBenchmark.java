@@ -0,0 +1,64 @@
+package audio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extraction of video IDs from the URLs users pass to !q, against the regular expression it replaced. YouTubeUrlTest
+ * checks that both agree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VideoIdBenchmark {
+
+    private static final Pattern LEGACY_URL = Pattern.compile("(?:https?://)?(?:(?:(?:www\\.?)?youtube\\.com(?:/(?:(?:watch\\?.*?(v=[^&\\s]+).*)|(?:v(/.*))|(channel/.+)|(?:user/(.+))|(?:results\\?(search_query=.+))))?)|(?:youtu\\.be(/.*)?))");
+
+    @Param({
+        "https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+        "https://www.youtube.com/watch?feature=share&v=dQw4w9WgXcQ&list=PL1234567890&index=3",
+        "https://youtu.be/dQw4w9WgXcQ",
+        "youtube.com/v/dQw4w9WgXcQ",
+        "https://soundcloud.com/artist/track"
+    })
+    private String url;
+
+    @Benchmark
+    public Optional<String> extractVideoId() {
+        return StreamService.extractVideoId(url);
+    }
+
+    @Benchmark
+    public long findVideoId() {
+        return YouTubeUrl.findVideoId(url);
+    }
+
+    @Benchmark
+    public Optional<String> legacyPattern() {
+        return legacyVideoId(url);
+    }
+
+    private static Optional<String> legacyVideoId(String url) {
+        Matcher matcher = LEGACY_URL.matcher(url);
+        if (matcher.find()) {
+            String group1 = matcher.group(1);
+            String group2 = matcher.group(2);
+            String group6 = matcher.group(6);
+            if (group1 != null && !group1.isEmpty()) {
+                return Optional.of(group1.substring(2)); // strip "v="
+            } else if (group2 != null && !group2.isEmpty() && !group2.substring(1).isEmpty()) {
+                return Optional.of(group2.substring(1)); // strip "/"
+            } else if (group6 != null && !group6.isEmpty() && !group6.substring(1).isEmpty()) {
+                return Optional.of(group6.substring(1)); // strip "/"
+            }
+        }
+        return Optional.empty();
+    }
+}
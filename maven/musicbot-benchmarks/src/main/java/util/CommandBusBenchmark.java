@@ -0,0 +1,80 @@
+package util;
+
+import org.openjdk.jmh.annotations.*;
+import sx.blah.discord.handle.impl.events.MessageReceivedEvent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of handling an incoming message in {@link CommandBus}, for regular chat, unknown commands and commands that
+ * reach their handler. The scheduler runs handlers inline so only matching, parsing and bookkeeping are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBusBenchmark {
+
+    // the names registered by StreamService
+    private static final String[][] COMMANDS = {
+        {"!q", "!queue"}, {"!qx"}, {"!s", "!skip"}, {"!v", "!volume"}, {"!status"}, {"!stop"}, {"!pause"},
+        {"!resume"}, {"!rewindto"}, {"!forwardto"}, {"!rewind"}, {"!forward"}, {"!shuffle"}, {"!loop"}, {"!help"}
+    };
+
+    private CommandBus bus;
+    private MessageReceivedEvent chat;
+    private MessageReceivedEvent unknown;
+    private MessageReceivedEvent queue;
+    private MessageReceivedEvent status;
+    private volatile Command last;
+
+    @Setup
+    public void setup() {
+        bus = new CommandBus(new InlineScheduler());
+        for (String[] names : COMMANDS) {
+            bus.register(command -> last = command, 0, Integer.MAX_VALUE, names);
+        }
+        chat = Fakes.event("anyone up for some music tonight? I have a new playlist");
+        unknown = Fakes.event("!queueing is not a command");
+        queue = Fakes.event("!q https://www.youtube.com/watch?v=dQw4w9WgXcQ&list=PL1234567890");
+        status = Fakes.event("!status 2");
+    }
+
+    @Benchmark
+    public void chatMessage() {
+        bus.onMessage(chat);
+    }
+
+    @Benchmark
+    public void unknownCommand() {
+        bus.onMessage(unknown);
+    }
+
+    @Benchmark
+    public Command queueCommand() {
+        bus.onMessage(queue);
+        return last;
+    }
+
+    @Benchmark
+    public Command statusCommand() {
+        bus.onMessage(status);
+        return last;
+    }
+
+    private static class InlineScheduler extends CommandScheduler {
+
+        private InlineScheduler() {
+            super(1, 1, 1);
+        }
+
+        @Override
+        public CompletableFuture<Void> submit(String key, Runnable task, boolean blocking) {
+            task.run();
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
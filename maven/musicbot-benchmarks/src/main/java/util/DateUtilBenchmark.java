@@ -0,0 +1,43 @@
+package util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duration formatting used for track lengths and seek replies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateUtilBenchmark {
+
+    @Param({"0", "5", "212", "3725", "90061"})
+    private long seconds;
+
+    private Duration duration;
+
+    @Setup
+    public void setup() {
+        duration = Duration.ofSeconds(seconds).plusMillis(250);
+    }
+
+    @Benchmark
+    public String formatDuration() {
+        return DateUtil.formatDuration(duration);
+    }
+
+    @Benchmark
+    public String formatHumanMinimal() {
+        return DateUtil.formatHuman(duration, true);
+    }
+
+    @Benchmark
+    public String formatHuman() {
+        return DateUtil.formatHuman(duration, false);
+    }
+}
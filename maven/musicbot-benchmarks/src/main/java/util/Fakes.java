@@ -0,0 +1,90 @@
+package util;
+
+import sx.blah.discord.handle.impl.events.MessageReceivedEvent;
+import sx.blah.discord.handle.obj.IChannel;
+import sx.blah.discord.handle.obj.IGuild;
+import sx.blah.discord.handle.obj.IMessage;
+import sx.blah.discord.handle.obj.IUser;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal Discord objects backed by proxies, enough to drive command parsing and dispatch without a connection.
+ */
+public class Fakes {
+
+    public static MessageReceivedEvent event(String content) {
+        return event(content, "100000000000000001");
+    }
+
+    public static MessageReceivedEvent event(String content, String guildId) {
+        IGuild guild = fake(IGuild.class, Collections.singletonMap("getID", guildId));
+        IChannel channel = fake(IChannel.class, Collections.singletonMap("getGuild", guild));
+        IUser author = fake(IUser.class, Collections.singletonMap("getID", "200000000000000001"));
+        Map<String, Object> message = new HashMap<>();
+        message.put("getAuthor", author);
+        message.put("getContent", content);
+        message.put("getChannel", channel);
+        message.put("getGuild", guild);
+        return new MessageReceivedEvent(fake(IMessage.class, message));
+    }
+
+    /**
+     * @return a deterministic 11 character ID in the YouTube alphabet
+     */
+    public static String videoId(int i) {
+        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        StringBuilder id = new StringBuilder(11);
+        long seed = i * 2654435761L + 12345;
+        for (int c = 0; c < 11; c++) {
+            id.append(chars.charAt((int) ((seed >>> (c * 5)) & 63)));
+        }
+        return id.toString();
+    }
+
+    private static <T> T fake(Class<T> type, Map<String, Object> answers) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(self);
+                case "equals":
+                    return self == args[0];
+                case "toString":
+                    return type.getSimpleName();
+                default:
+                    if (answers.containsKey(method.getName())) {
+                        return answers.get(method.getName());
+                    }
+                    return zero(method.getReturnType());
+            }
+        });
+        return type.cast(proxy);
+    }
+
+    /**
+     * Default value of a return type, since a proxy returning null for a primitive throws.
+     */
+    private static Object zero(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0f;
+        }
+        return 0d;
+    }
+}
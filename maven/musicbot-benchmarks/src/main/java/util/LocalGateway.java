@@ -0,0 +1,89 @@
+package util;
+
+import metrics.Metrics;
+import sx.blah.discord.handle.impl.events.MessageReceivedEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for the Discord gateway that feeds synthetic guild messages into a {@link ShardDispatcher}, one producer
+ * thread per shard like one connection per shard, so the sharded event path can be load tested without Discord.
+ * Messages go through a real {@link CommandBus} and {@link CommandScheduler}; a tenth of them are commands whose
+ * handler spins for the given time.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar util.LocalGateway [shards] [guilds] [events/s] [seconds] [work micros]}
+ */
+public class LocalGateway {
+
+    public static void main(String[] args) throws InterruptedException {
+        int shards = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int guilds = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int rate = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        long workNanos = TimeUnit.MICROSECONDS.toNanos(args.length > 4 ? Long.parseLong(args[4]) : 200);
+
+        ShardDispatcher dispatcher = new ShardDispatcher(shards);
+        CommandScheduler scheduler = new CommandScheduler(Runtime.getRuntime().availableProcessors(), 8, 16);
+        CommandBus bus = new CommandBus(scheduler);
+        bus.register(command -> spin(workNanos), 0, Integer.MAX_VALUE, "!work");
+        dispatcher.registerListener(bus);
+
+        List<List<MessageReceivedEvent>> events = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            events.add(new ArrayList<>());
+        }
+        for (int i = 0; i < guilds; i++) {
+            // snowflakes carry their timestamp above bit 22, which is what the shard formula reads
+            String guildId = String.valueOf(((long) (i + 1) << 22) | 1);
+            List<MessageReceivedEvent> shardEvents = events.get(ShardDispatcher.shardOf(guildId, shards));
+            for (int j = 0; j < 9; j++) {
+                shardEvents.add(Fakes.event("just chatting in guild " + i, guildId));
+            }
+            shardEvents.add(Fakes.event("!work " + i, guildId));
+        }
+
+        System.out.printf("Sending %d events/s to %d guilds on %d shards for %d s%n", rate, guilds, shards, seconds);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long interval = TimeUnit.SECONDS.toNanos(1) * shards / Math.max(1, rate);
+        List<Thread> connections = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            List<MessageReceivedEvent> shardEvents = events.get(i);
+            Thread thread = new Thread(() -> {
+                long next = System.nanoTime();
+                int sent = 0;
+                while (next < end && !shardEvents.isEmpty()) {
+                    dispatcher.handle(shardEvents.get(sent++ % shardEvents.size()));
+                    next += interval;
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+            }, "gateway-" + i);
+            thread.start();
+            connections.add(thread);
+        }
+        for (Thread thread : connections) {
+            thread.join();
+        }
+        // let the queues drain before reporting
+        Thread.sleep(1000);
+        dispatcher.shutdown();
+        scheduler.shutdown();
+        for (String line : Metrics.scrape().split("\n")) {
+            if (line.startsWith("musicbot_shard_") || line.startsWith("musicbot_command")) {
+                System.out.println(line);
+            }
+        }
+    }
+
+    private static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // stands in for a handler using the CPU
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting of playlist dumps the size of what !status used to send, with and without a surrounding code block.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SplitMessageBenchmark {
+
+    private static final int LENGTH_LIMIT = 2000;
+
+    @Param({"10", "1000", "10000"})
+    private int tracks;
+
+    @Param({"false", "true"})
+    private boolean codeBlock;
+
+    private SplitMessage message;
+
+    @Setup
+    public void setup() {
+        StringBuilder dump = new StringBuilder()
+            .append("**Playing:** `dQw4w9WgXcQ` Rick Astley - Never Gonna Give You Up [0:42/3:32]\n")
+            .append("**Volume:** 20\n**Playlist:**\n\n");
+        if (codeBlock) {
+            dump.append("```\n");
+        }
+        for (int i = 0; i < tracks; i++) {
+            dump.append('`').append(Fakes.videoId(i)).append("` Artist ").append(i % 97).append(" - Some Song Title ")
+                .append(i).append(" (Official Video) [").append(i % 9).append(':').append(10 + i % 50).append("]\n");
+        }
+        if (codeBlock) {
+            dump.append("```\n");
+        }
+        message = new SplitMessage(dump.toString());
+    }
+
+    @Benchmark
+    public List<String> split() {
+        return message.split(LENGTH_LIMIT);
+    }
+}
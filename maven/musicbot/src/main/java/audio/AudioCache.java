@@ -0,0 +1,316 @@
+package audio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of transcoded audio keyed by video ID and format. Entries are written to a temporary file while
+ * the track streams and only renamed into place once the stream reached its end and the process that produced it
+ * reported success, so a partially written file is never served. The least recently used entries are evicted to stay
+ * within the byte budget.
+ */
+public class AudioCache {
+
+    private static final Logger log = LoggerFactory.getLogger(AudioCache.class);
+    private static final Pattern SAFE_KEY = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long hits;
+    private long misses;
+    // waits for producers to exit off the audio thread
+    private final ExecutorService committer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "audio-cache-commit");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Tells whether the source of an entry produced all of it, such as a process that exited normally.
+     */
+    public interface Completion {
+
+        /**
+         * Called once the source reached its end, may block until the outcome is known.
+         */
+        boolean succeeded() throws InterruptedException;
+    }
+
+    public AudioCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(this::lastAccess));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                Files.deleteIfExists(file);
+            } else {
+                long size = Files.size(file);
+                entries.put(name, size);
+                totalBytes += size;
+            }
+        }
+        evict();
+        log.debug("Audio cache loaded {} entries ({} bytes)", entries.size(), totalBytes);
+    }
+
+    private long lastAccess(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class).lastAccessTime().toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public boolean isCacheable(String id) {
+        return SAFE_KEY.matcher(id).matches();
+    }
+
+    /**
+     * Open a cached entry for reading.
+     *
+     * @return a stream over the cached audio, or empty if the entry is not cached
+     */
+    public synchronized Optional<InputStream> open(String id, String format) {
+        String key = key(id, format);
+        if (!entries.containsKey(key)) {
+            misses++;
+            return Optional.empty();
+        }
+        try {
+            FileChannel channel = FileChannel.open(directory.resolve(key), StandardOpenOption.READ);
+            hits++;
+            return Optional.of(new BufferedInputStream(Channels.newInputStream(channel)));
+        } catch (IOException e) {
+            log.warn("Could not open cached audio {}: {}", key, e.toString());
+            remove(key);
+            misses++;
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return the size in bytes of a cached entry, or -1 if the entry is not cached
+     */
+    public synchronized long length(String id, String format) {
+        Long size = entries.get(key(id, format));
+        return size == null ? -1 : size;
+    }
+
+    /**
+     * Wrap a source stream so that everything read from it is also written to the cache. The entry is committed
+     * once the source is read to its end and the completion check passes, and discarded otherwise, including when the
+     * stream is closed early. An end of stream alone is not enough: a producer that was killed or failed also ends
+     * its output.
+     */
+    public InputStream write(String id, String format, InputStream source, Completion completion) {
+        String key = key(id, format);
+        try {
+            Path temp = Files.createTempFile(directory, key + ".", TEMP_SUFFIX);
+            return new CachingInputStream(source, key, temp, completion);
+        } catch (IOException e) {
+            log.warn("Could not create cache file for {}: {}", key, e.toString());
+            return source;
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private String key(String id, String format) {
+        if (!isCacheable(id)) {
+            throw new IllegalArgumentException("Invalid cache key: " + id);
+        }
+        return id + "." + format;
+    }
+
+    private void commitIfComplete(String key, Path temp, Completion completion) {
+        try {
+            committer.execute(() -> {
+                try {
+                    if (completion.succeeded()) {
+                        commit(key, temp);
+                        return;
+                    }
+                    log.debug("Not caching {}: its source did not complete", key);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    log.warn("Could not commit cached audio {}: {}", key, e.toString());
+                }
+                deleteQuietly(temp);
+            });
+        } catch (RejectedExecutionException e) {
+            deleteQuietly(temp);
+        }
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}", file, e.toString());
+        }
+    }
+
+    public void shutdown() {
+        committer.shutdownNow();
+    }
+
+    private synchronized void commit(String key, Path temp) throws IOException {
+        long size = Files.size(temp);
+        if (size == 0 || size > maxBytes) {
+            Files.deleteIfExists(temp);
+            return;
+        }
+        Files.move(temp, directory.resolve(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Long previous = entries.put(key, size);
+        totalBytes += size - (previous == null ? 0 : previous);
+        evict();
+        log.debug("Cached audio {} ({} bytes, {} total)", key, size, totalBytes);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue();
+            delete(eldest.getKey());
+        }
+    }
+
+    private void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        delete(key);
+    }
+
+    private void delete(String key) {
+        try {
+            Files.deleteIfExists(directory.resolve(key));
+        } catch (IOException e) {
+            log.warn("Could not delete cached audio {}: {}", key, e.toString());
+        }
+    }
+
+    private class CachingInputStream extends FilterInputStream {
+
+        private final String key;
+        private final Path temp;
+        private final Completion completion;
+        private final OutputStream output;
+        private boolean done;
+
+        private CachingInputStream(InputStream in, String key, Path temp, Completion completion) throws IOException {
+            super(in);
+            this.key = key;
+            this.temp = temp;
+            this.completion = completion;
+            this.output = new BufferedOutputStream(Files.newOutputStream(temp));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                finish(true);
+            } else if (!done) {
+                output.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count == -1) {
+                finish(true);
+            } else if (!done) {
+                output.write(b, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // read through skipped bytes so the cached copy stays complete
+            byte[] buffer = new byte[(int) Math.min(8192, Math.max(0, n))];
+            long skipped = 0;
+            while (skipped < n) {
+                int count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (count == -1) {
+                    break;
+                }
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                finish(false);
+            }
+        }
+
+        private void finish(boolean complete) throws IOException {
+            if (done) {
+                return;
+            }
+            done = true;
+            output.close();
+            if (complete) {
+                commitIfComplete(key, temp, completion);
+            } else {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package audio;
+
+import metrics.Histogram;
+import metrics.Metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Metrics shared by the classes that start youtube-dl and read what it produces.
+ */
+class AudioMetrics {
+
+    static final Histogram SPAWN_SECONDS = Metrics.histogram("musicbot_ytdl_spawn_seconds",
+        "Time taken to start a youtube-dl process", "purpose");
+    static final Histogram FIRST_BYTE_SECONDS = Metrics.histogram("musicbot_first_audio_byte_seconds",
+        "Time from opening a track until its first audio byte was read", "source");
+    static final Histogram METADATA_PARSE_SECONDS = Metrics.histogram("musicbot_metadata_parse_seconds",
+        "Time taken to read a video info file");
+    static final Histogram ENQUEUE_ACK_SECONDS = Metrics.histogram("musicbot_enqueue_ack_seconds",
+        "Time from receiving a queue command until it was acknowledged");
+    static final Histogram ENQUEUE_PLAYABLE_SECONDS = Metrics.histogram("musicbot_enqueue_playable_seconds",
+        "Time from receiving a queue command until its track could play, for tracks resolved right away");
+    static final Histogram QUEUE_RESTORE_SECONDS = Metrics.histogram("musicbot_queue_restore_seconds",
+        "Time taken to rebuild every guild's queue from the journal");
+
+    /**
+     * Start a process, recording how long the start took.
+     */
+    static Process start(ProcessBuilder builder, String purpose) throws IOException {
+        long start = System.nanoTime();
+        Process process = builder.start();
+        SPAWN_SECONDS.labels(purpose).observeSince(start);
+        return process;
+    }
+
+    /**
+     * Wrap a stream so the time until its first byte is recorded.
+     *
+     * @param start  {@link System#nanoTime()} reading taken when the track started opening
+     * @param source where the audio comes from
+     */
+    static InputStream timeFirstByte(InputStream stream, long start, String source) {
+        return new FilterInputStream(stream) {
+
+            private boolean recorded;
+
+            @Override
+            public int read() throws IOException {
+                int read = super.read();
+                record(read >= 0);
+                return read;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                record(read > 0);
+                return read;
+            }
+
+            private void record(boolean gotData) {
+                if (gotData && !recorded) {
+                    recorded = true;
+                    FIRST_BYTE_SECONDS.labels(source).observeSince(start);
+                }
+            }
+        };
+    }
+}
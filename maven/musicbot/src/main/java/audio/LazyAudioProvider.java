@@ -0,0 +1,155 @@
+package audio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sx.blah.discord.handle.audio.IAudioProvider;
+import sx.blah.discord.util.audio.providers.AudioInputStreamProvider;
+
+import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Placeholder audio source that only opens its stream once resolved, usually by the {@link Prefetcher} shortly
+ * before the track plays. Until then it holds no process or file handle and plays silence if it is reached early.
+ */
+public class LazyAudioProvider implements IAudioProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(LazyAudioProvider.class);
+    // 20 ms of 48 kHz 16-bit stereo
+    private static final byte[] SILENCE = new byte[3840];
+
+    public enum State {
+        PENDING, SCHEDULED, READY, FAILED, CLOSED
+    }
+
+    private final String id;
+    private final Opener opener;
+    private final Runnable onDemand;
+    private final AtomicReference<State> state = new AtomicReference<>(State.PENDING);
+    private final CompletableFuture<Void> resolution = new CompletableFuture<>();
+    private volatile AudioInputStream stream;
+    private volatile IAudioProvider delegate;
+
+    /**
+     * @param id       the ID or URL this provider plays
+     * @param opener   opens the audio stream, called at most once
+     * @param onDemand called if audio is requested before the provider was scheduled for resolution
+     */
+    public LazyAudioProvider(String id, Opener opener, Runnable onDemand) {
+        this.id = id;
+        this.opener = opener;
+        this.onDemand = onDemand;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return a future completed once the stream is open, or exceptionally if it could not be opened
+     */
+    public CompletableFuture<Void> getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Claim this provider for resolution.
+     *
+     * @return true if the caller should now call {@link #resolve()}
+     */
+    public boolean schedule() {
+        return state.compareAndSet(State.PENDING, State.SCHEDULED);
+    }
+
+    /**
+     * Open the underlying stream. Must only be called after a successful {@link #schedule()}.
+     *
+     * @return true if the stream was opened
+     */
+    public boolean resolve() {
+        if (state.get() != State.SCHEDULED) {
+            return false;
+        }
+        try {
+            AudioInputStream opened = opener.open(this);
+            stream = opened;
+            delegate = new AudioInputStreamProvider(opened);
+            if (state.compareAndSet(State.SCHEDULED, State.READY)) {
+                resolution.complete(null);
+                return true;
+            }
+            // closed while we were opening
+            closeStream();
+            resolution.cancel(false);
+            return false;
+        } catch (Exception e) {
+            log.warn("Could not resolve {}: {}", id, e.toString());
+            state.set(State.FAILED);
+            resolution.completeExceptionally(e);
+            return false;
+        }
+    }
+
+    /**
+     * Release the underlying stream, if any. A closed provider reports itself as finished.
+     */
+    public void close() {
+        if (state.getAndSet(State.CLOSED) == State.READY) {
+            closeStream();
+        }
+        resolution.cancel(false);
+    }
+
+    private void closeStream() {
+        AudioInputStream opened = stream;
+        if (opened != null) {
+            try {
+                opened.close();
+            } catch (IOException e) {
+                log.debug("Could not close stream for {}: {}", id, e.toString());
+            }
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        switch (state.get()) {
+            case READY:
+                return delegate.isReady();
+            case FAILED:
+            case CLOSED:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    @Override
+    public byte[] provide() {
+        State current = state.get();
+        if (current == State.READY) {
+            return delegate.provide();
+        } else if (current == State.PENDING) {
+            onDemand.run();
+        }
+        return SILENCE;
+    }
+
+    @Override
+    public int getChannels() {
+        IAudioProvider resolved = delegate;
+        return resolved == null ? 2 : resolved.getChannels();
+    }
+
+    @FunctionalInterface
+    public interface Opener {
+
+        AudioInputStream open(LazyAudioProvider provider) throws Exception;
+    }
+}
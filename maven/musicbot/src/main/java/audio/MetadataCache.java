@@ -0,0 +1,76 @@
+package audio;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of video metadata keyed by ID, with entries expiring after a fixed time to live.
+ */
+public class MetadataCache {
+
+    private final long ttlNanos;
+    private final Map<String, CachedMetadata> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public MetadataCache(int maxSize, long ttl, TimeUnit unit) {
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<String, CachedMetadata>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedMetadata> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public Optional<Metadata> get(String id) {
+        CachedMetadata entry;
+        synchronized (entries) {
+            entry = entries.get(id);
+            if (entry != null && System.nanoTime() - entry.created > ttlNanos) {
+                entries.remove(id);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        return Optional.of(entry.metadata);
+    }
+
+    public void put(String id, Metadata metadata) {
+        synchronized (entries) {
+            entries.put(id, new CachedMetadata(metadata, System.nanoTime()));
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static class CachedMetadata {
+
+        private final Metadata metadata;
+        private final long created;
+
+        private CachedMetadata(Metadata metadata, long created) {
+            this.metadata = metadata;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package audio;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming reader for youtube-dl info JSON files. Only the top-level fields used by {@link Metadata} are read,
+ * nested values like "formats" or "thumbnails" are skipped without being built and reading stops as soon as every
+ * field has been seen.
+ */
+public class MetadataReader {
+
+    private static final int TITLE = 1;
+    private static final int ID = 1 << 1;
+    private static final int DURATION = 1 << 2;
+    private static final int WEBPAGE_URL = 1 << 3;
+    private static final int THUMBNAIL = 1 << 4;
+    private static final int UPLOADER = 1 << 5;
+    private static final int ALL = TITLE | ID | DURATION | WEBPAGE_URL | THUMBNAIL | UPLOADER;
+
+    public static Metadata read(Reader reader) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        json.setLenient(true);
+        Metadata metadata = new Metadata();
+        int found = 0;
+        json.beginObject();
+        while (found != ALL && json.hasNext()) {
+            switch (json.nextName()) {
+                case "title":
+                    metadata.setTitle(nextString(json));
+                    found |= TITLE;
+                    break;
+                case "id":
+                    metadata.setId(nextString(json));
+                    found |= ID;
+                    break;
+                case "duration":
+                    metadata.setDuration(nextLong(json));
+                    found |= DURATION;
+                    break;
+                case "webpage_url":
+                    metadata.setWebpageUrl(nextString(json));
+                    found |= WEBPAGE_URL;
+                    break;
+                case "thumbnail":
+                    metadata.setThumbnail(nextString(json));
+                    found |= THUMBNAIL;
+                    break;
+                case "uploader":
+                    metadata.setUploader(nextString(json));
+                    found |= UPLOADER;
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        return metadata;
+    }
+
+    private static String nextString(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return null;
+        }
+        return json.nextString();
+    }
+
+    private static long nextLong(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return 0;
+        }
+        return (long) json.nextDouble();
+    }
+
+    private MetadataReader() {
+
+    }
+}
@@ -0,0 +1,81 @@
+package audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Audio format requested from ffmpeg when streaming a track.
+ */
+public enum OutputFormat {
+
+    /**
+     * Raw signed 16-bit big-endian PCM at 48 kHz stereo, the format Discord4J encodes from, so no decoding is needed.
+     * Takes about 11.5 MB per minute, ten times as much as {@link #MP3}, so the default 1024 MB audio cache holds
+     * about 20 tracks of four minutes instead of about 200. Set audio-cache-max-mb to keep more, or pick MP3 where
+     * disk matters more than the CPU spent decoding, which AudioDecodeBenchmark in musicbot-benchmarks measures.
+     */
+    PCM("pcm", "-f s16be -ar 48000 -ac 2") {
+        @Override
+        public AudioInputStream open(InputStream stream, long length) {
+            long frames = length < 0 ? AudioSystem.NOT_SPECIFIED : length / PCM_FORMAT.getFrameSize();
+            return new AudioInputStream(stream, PCM_FORMAT, frames);
+        }
+    },
+    /**
+     * MP3 stream decoded by the installed audio SPI, kept for setups relying on the previous behavior.
+     */
+    MP3("mp3", "-q:a 5 -f mp3") {
+        @Override
+        public AudioInputStream open(InputStream stream, long length) throws IOException,
+            UnsupportedAudioFileException {
+            return AudioSystem.getAudioInputStream(stream);
+        }
+    };
+
+    private static final AudioFormat PCM_FORMAT =
+        new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 48000, 16, 2, 4, 48000, true);
+
+    private final String extension;
+    private final String ffmpegOptions;
+
+    OutputFormat(String extension, String ffmpegOptions) {
+        this.extension = extension;
+        this.ffmpegOptions = ffmpegOptions;
+    }
+
+    /**
+     * @return the file extension used for cached audio in this format
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return the ffmpeg output options that produce this format
+     */
+    public String getFfmpegOptions() {
+        return ffmpegOptions;
+    }
+
+    /**
+     * Wrap a stream of audio in this format.
+     *
+     * @param stream the audio data
+     * @param length length of the stream in bytes, or -1 if unknown
+     */
+    public abstract AudioInputStream open(InputStream stream, long length) throws IOException,
+        UnsupportedAudioFileException;
+
+    public static OutputFormat fromName(String name, OutputFormat defaultValue) {
+        for (OutputFormat format : values()) {
+            if (format.extension.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,288 @@
+package audio;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists playlist entries with a single flat youtube-dl call and fetches per-entry info files with bounded
+ * concurrency, so each entry can be queued as its own lazily resolved track. Listing processes are registered with
+ * the {@link ProcessRegistry} so they can be killed with their descendants.
+ */
+public class PlaylistLoader {
+
+    private static final Logger log = LoggerFactory.getLogger(PlaylistLoader.class);
+
+    private final String executable;
+    private final ProcessOutputDrainer drainer;
+    private final ProcessRegistry processRegistry;
+    private final ExecutorService fetchers;
+    private final ExecutorService listers;
+
+    public PlaylistLoader(String executable, ProcessOutputDrainer drainer, ProcessRegistry processRegistry,
+                          int concurrency) {
+        this.executable = executable;
+        this.drainer = drainer;
+        this.processRegistry = processRegistry;
+        this.fetchers = Executors.newFixedThreadPool(concurrency, namedThreadFactory("playlist-fetcher"));
+        // listings are already limited by admission control, and each ends with its deadline at the latest
+        this.listers = Executors.newCachedThreadPool(namedThreadFactory("playlist-lister"));
+    }
+
+    /**
+     * List the contents of a URL without downloading anything. Completing the returned future, for instance
+     * exceptionally once a deadline passed, kills the listing process and the processes it started.
+     *
+     * @param url       the URL to inspect
+     * @param variables additional youtube-dl options, like a playlist range
+     * @param guildId   the guild the listing is for, whose release kills it
+     * @return a future of the playlist, or of a playlist without entries if the URL points to a single video
+     */
+    public CompletableFuture<Playlist> list(String url, Map<String, String> variables, String guildId) {
+        CompletableFuture<Playlist> result = new CompletableFuture<>();
+        result.whenComplete((playlist, e) -> processRegistry.release(result));
+        try {
+            listers.execute(() -> {
+                try {
+                    result.complete(readListing(url, variables, guildId, result));
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private Playlist readListing(String url, Map<String, String> variables, String guildId,
+                                 CompletableFuture<Playlist> owner) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(executable, "--flat-playlist", "-J");
+        if (variables != null) {
+            for (Map.Entry<String, String> entry : variables.entrySet()) {
+                builder.command().add(entry.getKey());
+                builder.command().add(entry.getValue());
+            }
+        }
+        builder.command().add("--");
+        builder.command().add(url);
+        Process process = AudioMetrics.start(builder, "list");
+        processRegistry.register(owner, guildId, process);
+        if (owner.isDone()) {
+            // given up on before the process started, the release already ran
+            processRegistry.release(owner);
+            throw new IOException("Listing cancelled");
+        }
+        drainer.register(url, process, event -> log.debug("[yt-dl] [{}] {}", event.getTag(), event.getLine()));
+        try (Reader reader = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)) {
+            return read(reader);
+        } catch (IllegalStateException e) {
+            throw new IOException("Unexpected playlist format", e);
+        }
+    }
+
+    /**
+     * Write the info file of a single video, without downloading it.
+     *
+     * @return a future completed once the info file is written
+     */
+    public CompletableFuture<Void> fetchInfo(String id) {
+        return CompletableFuture.runAsync(() -> {
+            ProcessBuilder builder = new ProcessBuilder(executable, "--skip-download", "--write-info-json",
+                "-o", "%(id)s.%(ext)s", "--", id);
+            try {
+                Process process = AudioMetrics.start(builder, "info");
+                drainer.register(id, process, event -> log.debug("[yt-dl] [{}] {}", event.getTag(), event.getLine()));
+                try (InputStream output = process.getInputStream()) {
+                    byte[] buffer = new byte[1024];
+                    while (output.read(buffer) != -1) {
+                        // discard, the info file is all we need
+                    }
+                }
+                process.waitFor();
+            } catch (IOException e) {
+                log.warn("Could not fetch info for {}: {}", id, e.toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, fetchers);
+    }
+
+    public void shutdown() {
+        fetchers.shutdownNow();
+        listers.shutdownNow();
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    static Playlist read(Reader input) throws IOException {
+        JsonReader json = new JsonReader(input);
+        json.setLenient(true);
+        String type = null;
+        String id = null;
+        String title = null;
+        List<Entry> entries = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "_type":
+                    type = nextString(json);
+                    break;
+                case "id":
+                    id = nextString(json);
+                    break;
+                case "title":
+                    title = nextString(json);
+                    break;
+                case "entries":
+                    entries = readEntries(json);
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        if (!"playlist".equals(type) || entries == null) {
+            entries = Collections.emptyList();
+        }
+        return new Playlist(id, title, entries);
+    }
+
+    private static List<Entry> readEntries(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return Collections.emptyList();
+        }
+        List<Entry> entries = new ArrayList<>();
+        json.beginArray();
+        while (json.hasNext()) {
+            String id = null;
+            String url = null;
+            String title = null;
+            long duration = -1;
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName()) {
+                    case "id":
+                        id = nextString(json);
+                        break;
+                    case "url":
+                        url = nextString(json);
+                        break;
+                    case "title":
+                        title = nextString(json);
+                        break;
+                    case "duration":
+                        if (json.peek() == JsonToken.NUMBER) {
+                            duration = (long) json.nextDouble();
+                        } else {
+                            json.skipValue();
+                        }
+                        break;
+                    default:
+                        json.skipValue();
+                }
+            }
+            json.endObject();
+            if (url != null || id != null) {
+                entries.add(new Entry(id, url != null ? url : id, title, duration));
+            }
+        }
+        json.endArray();
+        return entries;
+    }
+
+    private static String nextString(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return null;
+        }
+        return json.nextString();
+    }
+
+    public static class Playlist {
+
+        private final String id;
+        private final String title;
+        private final List<Entry> entries;
+
+        private Playlist(String id, String title, List<Entry> entries) {
+            this.id = id;
+            this.title = title;
+            this.entries = entries;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+    }
+
+    public static class Entry {
+
+        private final String id;
+        private final String url;
+        private final String title;
+        private final long duration;
+
+        private Entry(String id, String url, String title, long duration) {
+            this.id = id;
+            this.url = url;
+            this.title = title;
+            this.duration = duration;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return what to pass to youtube-dl to play this entry, the video ID for YouTube playlists
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * @return duration in seconds, or -1 if the flat listing did not include it
+         */
+        public long getDuration() {
+            return duration;
+        }
+    }
+}
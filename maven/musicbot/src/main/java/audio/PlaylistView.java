@@ -0,0 +1,176 @@
+package audio;
+
+import sx.blah.discord.util.audio.AudioPlayer;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Rendered lines of a guild's playlist, kept in playlist order and updated as tracks are queued, finished, skipped
+ * or shuffled. Each line is rendered at most once until its track changes, and only when a page showing it is
+ * requested, so a status call costs one page no matter how long the playlist is.
+ */
+public class PlaylistView {
+
+    private final Function<AudioPlayer.Track, String> renderer;
+    private final int maxLineLength;
+    private final List<Line> lines = new ArrayList<>();
+
+    /**
+     * @param renderer      renders the line of a track
+     * @param maxLineLength lines longer than this are truncated, so a page always fits one message
+     */
+    public PlaylistView(Function<AudioPlayer.Track, String> renderer, int maxLineLength) {
+        this.renderer = renderer;
+        this.maxLineLength = maxLineLength;
+    }
+
+    public synchronized void append(AudioPlayer.Track track) {
+        lines.add(new Line(track));
+    }
+
+    /**
+     * Remove the first line of the track, which is usually the head of the playlist.
+     */
+    public synchronized void remove(AudioPlayer.Track track) {
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).track == track) {
+                lines.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Follow the order of the given playlist, reusing the lines already rendered.
+     */
+    public synchronized void reorder(List<AudioPlayer.Track> playlist) {
+        Map<AudioPlayer.Track, Line> rendered = new IdentityHashMap<>(lines.size());
+        for (Line line : lines) {
+            rendered.put(line.track, line);
+        }
+        List<Line> reordered = new ArrayList<>(playlist.size());
+        for (AudioPlayer.Track track : playlist) {
+            Line line = rendered.remove(track);
+            reordered.add(line != null ? line : new Line(track));
+        }
+        lines.clear();
+        lines.addAll(reordered);
+    }
+
+    /**
+     * Render the line of the track again the next time it is shown, after its metadata changed.
+     */
+    public synchronized void invalidate(AudioPlayer.Track track) {
+        for (Line line : lines) {
+            if (line.track == track) {
+                line.text = null;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return lines.size();
+    }
+
+    public synchronized void clear() {
+        lines.clear();
+    }
+
+    /**
+     * Render one page of the playlist.
+     *
+     * @param playlist the playlist this view follows, used to catch up if an event was missed
+     * @param page     page number starting at 1, clamped to the available pages
+     * @param pageSize number of tracks per page
+     */
+    public synchronized Page page(List<AudioPlayer.Track> playlist, int page, int pageSize) {
+        if (!inSync(playlist)) {
+            try {
+                reorder(playlist);
+            } catch (ConcurrentModificationException e) {
+                // playlist changed while catching up, show the lines as they are
+            }
+        }
+        int pages = Math.max(1, (lines.size() + pageSize - 1) / pageSize);
+        int number = Math.max(1, Math.min(page, pages));
+        int from = (number - 1) * pageSize;
+        int to = Math.min(lines.size(), from + pageSize);
+        StringBuilder text = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                text.append('\n');
+            }
+            text.append(i + 1).append(". ").append(lines.get(i).render());
+        }
+        return new Page(text.toString(), number, pages, lines.size());
+    }
+
+    private boolean inSync(List<AudioPlayer.Track> playlist) {
+        try {
+            if (playlist.size() != lines.size()) {
+                return false;
+            }
+            // order changes only come with a shuffle, checking both ends is enough to notice a missed event
+            return lines.isEmpty() || (playlist.get(0) == lines.get(0).track
+                && playlist.get(lines.size() - 1) == lines.get(lines.size() - 1).track);
+        } catch (IndexOutOfBoundsException e) {
+            // playlist changed while checking
+            return false;
+        }
+    }
+
+    private class Line {
+
+        private final AudioPlayer.Track track;
+        private String text;
+
+        private Line(AudioPlayer.Track track) {
+            this.track = track;
+        }
+
+        private String render() {
+            if (text == null) {
+                String rendered = renderer.apply(track);
+                text = rendered.length() > maxLineLength ? rendered.substring(0, maxLineLength - 3) + "..."
+                    : rendered;
+            }
+            return text;
+        }
+    }
+
+    public static class Page {
+
+        private final String text;
+        private final int number;
+        private final int pages;
+        private final int tracks;
+
+        private Page(String text, int number, int pages, int tracks) {
+            this.text = text;
+            this.number = number;
+            this.pages = pages;
+            this.tracks = tracks;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public int getPages() {
+            return pages;
+        }
+
+        public int getTracks() {
+            return tracks;
+        }
+    }
+}
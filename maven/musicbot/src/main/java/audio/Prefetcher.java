@@ -0,0 +1,88 @@
+package audio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sx.blah.discord.handle.audio.IAudioProvider;
+import sx.blah.discord.util.audio.AudioPlayer;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Resolves the first tracks of each playlist ahead of time so they are ready when they start, leaving the rest of
+ * the playlist as unresolved placeholders. Resolution across all guilds shares a fixed number of threads.
+ */
+public class Prefetcher {
+
+    private static final Logger log = LoggerFactory.getLogger(Prefetcher.class);
+
+    private final int depth;
+    private final ExecutorService resolvers;
+    private final Consumer<AudioPlayer.Track> onResolved;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * @param depth       number of tracks from the head of each playlist to keep resolved, including the current one
+     * @param concurrency maximum number of tracks being resolved at the same time
+     * @param onResolved  called with each track once its stream is open
+     */
+    public Prefetcher(int depth, int concurrency, Consumer<AudioPlayer.Track> onResolved) {
+        this.depth = Math.max(1, depth);
+        this.onResolved = onResolved;
+        AtomicInteger count = new AtomicInteger();
+        this.resolvers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "prefetch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedule resolution of the tracks within the prefetch window of the given player.
+     */
+    public void refresh(AudioPlayer player) {
+        List<AudioPlayer.Track> playlist = player.getPlaylist();
+        try {
+            int limit = Math.min(depth, playlist.size());
+            for (int i = 0; i < limit; i++) {
+                schedule(playlist.get(i));
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // playlist shrunk while iterating, the next event will refresh again
+            log.debug("Playlist changed during prefetch: {}", e.toString());
+        }
+    }
+
+    /**
+     * @return the number of tracks waiting for a free resolver thread
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public void shutdown() {
+        resolvers.shutdownNow();
+    }
+
+    private void schedule(AudioPlayer.Track track) {
+        LazyAudioProvider provider = lazyProvider(track);
+        if (provider != null && provider.schedule()) {
+            log.debug("Prefetching {}", provider.getId());
+            queued.incrementAndGet();
+            resolvers.execute(() -> {
+                queued.decrementAndGet();
+                if (provider.resolve()) {
+                    onResolved.accept(track);
+                }
+            });
+        }
+    }
+
+    static LazyAudioProvider lazyProvider(AudioPlayer.Track track) {
+        IAudioProvider provider = track.getProvider();
+        return provider instanceof LazyAudioProvider ? (LazyAudioProvider) provider : null;
+    }
+}
@@ -0,0 +1,61 @@
+package audio;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A line of youtube-dl or ffmpeg output, classified and tagged with the track it belongs to.
+ */
+public class ProcessEvent {
+
+    private static final Pattern PROGRESS = Pattern.compile("^\\[download\\]\\s+(\\d+(?:\\.\\d+)?)%");
+
+    public enum Type {
+        PROGRESS, WARNING, ERROR, OUTPUT
+    }
+
+    private final String tag;
+    private final Type type;
+    private final String line;
+    private final double percent;
+
+    private ProcessEvent(String tag, Type type, String line, double percent) {
+        this.tag = tag;
+        this.type = type;
+        this.line = line;
+        this.percent = percent;
+    }
+
+    public static ProcessEvent parse(String tag, String line) {
+        if (line.startsWith("ERROR:")) {
+            return new ProcessEvent(tag, Type.ERROR, line.substring(6).trim(), -1);
+        } else if (line.startsWith("WARNING:")) {
+            return new ProcessEvent(tag, Type.WARNING, line.substring(8).trim(), -1);
+        } else if (line.startsWith("[download]")) {
+            Matcher matcher = PROGRESS.matcher(line);
+            if (matcher.find()) {
+                return new ProcessEvent(tag, Type.PROGRESS, line, Double.parseDouble(matcher.group(1)));
+            }
+        }
+        return new ProcessEvent(tag, Type.OUTPUT, line, -1);
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    /**
+     * @return download progress in percent, or -1 if this is not a progress event
+     */
+    public double getPercent() {
+        return percent;
+    }
+}
@@ -0,0 +1,212 @@
+package audio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Drains the error output of every running subprocess using a small fixed set of threads. Streams are polled for
+ * available bytes instead of blocking a thread per process, complete lines are parsed into {@link ProcessEvent}s
+ * and delivered to the listener given on registration, subject to a shared lines per second limit.
+ */
+public class ProcessOutputDrainer {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessOutputDrainer.class);
+    private static final long IDLE_SLEEP_MILLIS = 50;
+
+    private final BlockingQueue<Source> sources = new LinkedBlockingQueue<>();
+    private final ExecutorService workers;
+    private final int linesPerSecond;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong suppressed = new AtomicLong();
+    private long windowStart = System.nanoTime();
+    private int windowLines;
+    private int windowSuppressed;
+    private volatile boolean running = true;
+
+    public ProcessOutputDrainer(int threads, int linesPerSecond) {
+        this.linesPerSecond = linesPerSecond;
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "process-drainer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::drainLoop);
+        }
+    }
+
+    /**
+     * Start draining the error stream of a process until it exits.
+     *
+     * @param tag      identifies the process in emitted events, usually a video ID
+     * @param process  the process to drain
+     * @param listener receives the parsed output lines
+     */
+    public void register(String tag, Process process, Consumer<ProcessEvent> listener) {
+        active.incrementAndGet();
+        sources.add(new Source(tag, process, listener));
+    }
+
+    /**
+     * @return the number of processes currently being drained
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * @return the number of lines dropped by the rate limit since startup
+     */
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    public void shutdown() {
+        running = false;
+        workers.shutdownNow();
+    }
+
+    private void drainLoop() {
+        while (running) {
+            try {
+                Source source = sources.take();
+                boolean progress;
+                try {
+                    progress = source.drain();
+                } catch (IOException e) {
+                    log.debug("Could not read output of {}: {}", source.tag, e.toString());
+                    source.finished = true;
+                    progress = false;
+                }
+                if (source.finished) {
+                    active.decrementAndGet();
+                } else {
+                    sources.add(source);
+                }
+                if (!progress && allIdle()) {
+                    TimeUnit.MILLISECONDS.sleep(IDLE_SLEEP_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private boolean allIdle() {
+        for (Source source : sources) {
+            if (source.hasInput()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized boolean acquireLine() {
+        long now = System.nanoTime();
+        if (now - windowStart >= TimeUnit.SECONDS.toNanos(1)) {
+            if (windowSuppressed > 0) {
+                log.info("[yt-dl] {} output lines suppressed", windowSuppressed);
+            }
+            windowStart = now;
+            windowLines = 0;
+            windowSuppressed = 0;
+        }
+        if (windowLines < linesPerSecond) {
+            windowLines++;
+            return true;
+        }
+        windowSuppressed++;
+        return false;
+    }
+
+    private class Source {
+
+        private final String tag;
+        private final Process process;
+        private final InputStream stream;
+        private final Consumer<ProcessEvent> listener;
+        private final byte[] buffer = new byte[4096];
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private volatile boolean finished;
+
+        private Source(String tag, Process process, Consumer<ProcessEvent> listener) {
+            this.tag = tag;
+            this.process = process;
+            this.stream = process.getErrorStream();
+            this.listener = listener;
+        }
+
+        private boolean hasInput() {
+            try {
+                return stream.available() > 0 || !process.isAlive();
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        /**
+         * Read whatever is available without blocking.
+         *
+         * @return true if any bytes were read
+         */
+        private boolean drain() throws IOException {
+            int available = stream.available();
+            if (available <= 0) {
+                if (process.isAlive()) {
+                    return false;
+                }
+                // the process is gone: keep what it left in the pipe and stop
+                flushLine();
+                stream.close();
+                finished = true;
+                return true;
+            }
+            int read = stream.read(buffer, 0, Math.min(buffer.length, available));
+            if (read > 0) {
+                append(read);
+            }
+            return read > 0;
+        }
+
+        private void append(int length) {
+            for (int i = 0; i < length; i++) {
+                byte b = buffer[i];
+                if (b == '\n' || b == '\r') {
+                    flushLine();
+                } else {
+                    line.write(b);
+                }
+            }
+        }
+
+        private void flushLine() {
+            if (line.size() == 0) {
+                return;
+            }
+            String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+            line.reset();
+            ProcessEvent event = ProcessEvent.parse(tag, text);
+            // errors always get through, the rest counts against the rate limit
+            if (event.getType() == ProcessEvent.Type.ERROR || acquireLine()) {
+                listener.accept(event);
+            } else {
+                suppressed.incrementAndGet();
+            }
+        }
+    }
+}
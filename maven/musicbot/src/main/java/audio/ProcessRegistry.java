@@ -0,0 +1,404 @@
+package audio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Tracks the subprocesses started for each track so they can be killed as soon as the track is skipped, finished
+ * or its guild disconnects. The processes they start in turn, such as the ffmpeg youtube-dl runs through --exec, are
+ * killed with them. Process IDs, descendants included, are written to a file so processes left behind by a crashed
+ * run can be reaped on the next start.
+ * <p>
+ * Registering and releasing only update the registry, so they are cheap enough for event threads: processes are
+ * killed on a thread of their own, and the pid file is rewritten by {@link #recordPids()} outside the lock.
+ */
+public class ProcessRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessRegistry.class);
+    private static final boolean WINDOWS = System.getProperty("os.name").contains("Windows");
+    // Java 9+ process handles, looked up reflectively since the bot still targets Java 8
+    private static final Method DESCENDANTS = method("java.lang.Process", "descendants");
+    private static final Method HANDLE_PID = method("java.lang.ProcessHandle", "pid");
+    private static final Method HANDLE_DESTROY = method("java.lang.ProcessHandle", "destroyForcibly");
+
+    private final Path pidFile;
+    private final Map<Object, Owned> processes = new HashMap<>();
+    private final Object pidFileLock = new Object();
+    private final ExecutorService reaper = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "process-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean dirty;
+
+    public ProcessRegistry(Path pidFile) {
+        this.pidFile = pidFile;
+    }
+
+    /**
+     * Link a process to its owner, usually the provider of the track it streams.
+     */
+    public synchronized void register(Object owner, String guildId, Process process) {
+        processes.computeIfAbsent(owner, key -> new Owned(guildId)).processes.add(process);
+        dirty = true;
+        log.debug("Registered subprocess for guild {}, {} live", guildId, getLiveCount());
+    }
+
+    /**
+     * Kill every process linked to the owner, in the background.
+     */
+    public void release(Object owner) {
+        Owned owned;
+        synchronized (this) {
+            owned = processes.remove(owner);
+            if (owned == null) {
+                return;
+            }
+            dirty = true;
+        }
+        destroyLater(owned.processes);
+    }
+
+    /**
+     * Kill every process started for a guild, in the background.
+     */
+    public void releaseGuild(String guildId) {
+        List<Process> released = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Owned> iterator = processes.values().iterator();
+            while (iterator.hasNext()) {
+                Owned owned = iterator.next();
+                if (owned.guildId.equals(guildId)) {
+                    released.addAll(owned.processes);
+                    iterator.remove();
+                    dirty = true;
+                }
+            }
+        }
+        if (!released.isEmpty()) {
+            destroyLater(released);
+        }
+    }
+
+    /**
+     * Kill every registered process before returning and stop the reaper thread, for shutdown.
+     */
+    public void releaseAll() {
+        List<Process> released = new ArrayList<>();
+        synchronized (this) {
+            processes.values().forEach(owned -> released.addAll(owned.processes));
+            processes.clear();
+            dirty = true;
+        }
+        reaper.shutdown();
+        released.forEach(this::destroy);
+        recordPids();
+    }
+
+    /**
+     * Rewrite the pid file if processes were registered or released, or to pick up processes started by the
+     * registered ones since it was last written. ffmpeg only starts once youtube-dl finished downloading, so the file
+     * is out of date until this runs. Called periodically from a timer rather than from event threads, since listing
+     * descendants can take a while.
+     */
+    public void recordPids() {
+        List<Process> live = new ArrayList<>();
+        synchronized (this) {
+            if (!dirty && processes.isEmpty()) {
+                return;
+            }
+            dirty = false;
+            processes.values().forEach(owned -> live.addAll(owned.processes));
+        }
+        writePids(live);
+    }
+
+    /**
+     * @return the number of registered processes still running
+     */
+    public synchronized int getLiveCount() {
+        int count = 0;
+        for (Owned owned : processes.values()) {
+            for (Process process : owned.processes) {
+                if (process.isAlive()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of registered processes still running, per guild ID
+     */
+    public synchronized Map<String, Integer> getLiveCountByGuild() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Owned owned : processes.values()) {
+            for (Process process : owned.processes) {
+                if (process.isAlive()) {
+                    counts.merge(owned.guildId, 1, Integer::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Kill processes recorded by a previous run that did not shut down cleanly.
+     */
+    public synchronized void reapOrphans() {
+        if (!Files.exists(pidFile)) {
+            return;
+        }
+        try {
+            List<String> pids = Files.readAllLines(pidFile, StandardCharsets.UTF_8);
+            List<Long> orphans = new ArrayList<>();
+            for (String pid : pids) {
+                try {
+                    orphans.add(Long.parseLong(pid.trim()));
+                } catch (NumberFormatException e) {
+                    // blank line
+                }
+            }
+            kill(orphans);
+            if (!pids.isEmpty()) {
+                log.info("Reaped {} subprocesses left by a previous run", pids.size());
+            }
+            Files.deleteIfExists(pidFile);
+        } catch (IOException e) {
+            log.warn("Could not reap orphaned subprocesses: {}", e.toString());
+        }
+    }
+
+    /**
+     * Kill processes by pid with a single kill command.
+     */
+    private void kill(List<Long> pids) {
+        List<String> command = new ArrayList<>();
+        if (WINDOWS) {
+            command.addAll(Arrays.asList("taskkill", "/F", "/T"));
+        } else {
+            command.addAll(Arrays.asList("kill", "-9"));
+        }
+        int options = command.size();
+        boolean proc = Files.isDirectory(Paths.get("/proc"));
+        for (Long pid : pids) {
+            if (proc && !isOurs(pid)) {
+                continue;
+            }
+            if (WINDOWS) {
+                command.add("/PID");
+            }
+            command.add(pid.toString());
+        }
+        if (command.size() == options) {
+            return;
+        }
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.PIPE).start();
+            process.getInputStream().close();
+            process.waitFor(5, TimeUnit.SECONDS);
+        } catch (IOException e) {
+            log.debug("Could not kill processes {}: {}", pids, e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Guard against killing an unrelated process that reused the pid.
+     */
+    private static boolean isOurs(long pid) {
+        try {
+            String command = new String(Files.readAllBytes(Paths.get("/proc", Long.toString(pid), "cmdline")),
+                StandardCharsets.UTF_8);
+            return command.contains("youtube-dl") || command.contains("ffmpeg");
+        } catch (IOException e) {
+            // no such process anymore
+            return false;
+        }
+    }
+
+    private void destroyLater(List<Process> released) {
+        try {
+            reaper.execute(() -> released.forEach(this::destroy));
+        } catch (RejectedExecutionException e) {
+            released.forEach(this::destroy);
+        }
+    }
+
+    private void destroy(Process process) {
+        if (process.isAlive()) {
+            // children first: once their parent is gone they are reparented and can't be found anymore
+            List<Long> pids = new ArrayList<>();
+            for (Object descendant : descendants(process)) {
+                if (descendant instanceof Long) {
+                    pids.add((Long) descendant);
+                } else {
+                    try {
+                        HANDLE_DESTROY.invoke(descendant);
+                    } catch (ReflectiveOperationException e) {
+                        log.debug("Could not kill descendant process: {}", e.toString());
+                    }
+                }
+            }
+            if (!pids.isEmpty()) {
+                kill(pids);
+            }
+            process.destroyForcibly();
+        }
+    }
+
+    /**
+     * @return the processes started by a process, directly or not, as process handles on Java 9+ and as pids read
+     * from /proc otherwise
+     */
+    private static List<Object> descendants(Process process) {
+        List<Object> descendants = new ArrayList<>();
+        if (DESCENDANTS != null) {
+            try {
+                try (Stream<?> handles = (Stream<?>) DESCENDANTS.invoke(process)) {
+                    handles.forEach(descendants::add);
+                }
+                return descendants;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                log.debug("Could not list descendant processes: {}", e.toString());
+            }
+        }
+        long pid = pid(process);
+        if (pid > 0 && Files.isDirectory(Paths.get("/proc"))) {
+            descendants.addAll(procDescendants(pid));
+        }
+        return descendants;
+    }
+
+    private static List<Long> procDescendants(long root) {
+        Map<Long, List<Long>> children = new HashMap<>();
+        try (Stream<Path> entries = Files.list(Paths.get("/proc"))) {
+            entries.forEach(entry -> {
+                String name = entry.getFileName().toString();
+                if (!name.isEmpty() && name.chars().allMatch(Character::isDigit)) {
+                    long parent = parentPid(entry.resolve("stat"));
+                    if (parent > 0) {
+                        children.computeIfAbsent(parent, key -> new ArrayList<>()).add(Long.parseLong(name));
+                    }
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            log.debug("Could not list processes: {}", e.toString());
+        }
+        List<Long> descendants = new ArrayList<>();
+        Deque<Long> pending = new ArrayDeque<>(Collections.singleton(root));
+        while (!pending.isEmpty()) {
+            for (Long child : children.getOrDefault(pending.poll(), Collections.emptyList())) {
+                descendants.add(child);
+                pending.add(child);
+            }
+        }
+        return descendants;
+    }
+
+    /**
+     * @return the fourth field of /proc/PID/stat, after the command name in parentheses, or -1
+     */
+    private static long parentPid(Path stat) {
+        try {
+            String text = new String(Files.readAllBytes(stat), StandardCharsets.UTF_8);
+            String[] fields = text.substring(text.lastIndexOf(')') + 2).split(" ");
+            return Long.parseLong(fields[1]);
+        } catch (IOException | RuntimeException e) {
+            // the process exited while listing
+            return -1;
+        }
+    }
+
+    private static long descendantPid(Object descendant) {
+        if (descendant instanceof Long) {
+            return (Long) descendant;
+        }
+        try {
+            return (long) HANDLE_PID.invoke(descendant);
+        } catch (ReflectiveOperationException e) {
+            return -1;
+        }
+    }
+
+    private void writePids(List<Process> live) {
+        List<String> pids = new ArrayList<>();
+        for (Process process : live) {
+            long pid = pid(process);
+            if (pid > 0 && process.isAlive()) {
+                pids.add(Long.toString(pid));
+                for (Object descendant : descendants(process)) {
+                    long descendantPid = descendantPid(descendant);
+                    if (descendantPid > 0) {
+                        pids.add(Long.toString(descendantPid));
+                    }
+                }
+            }
+        }
+        // the timer and shutdown may both get here
+        synchronized (pidFileLock) {
+            try {
+                if (pids.isEmpty()) {
+                    Files.deleteIfExists(pidFile);
+                } else {
+                    Files.write(pidFile, pids, StandardCharsets.UTF_8);
+                }
+            } catch (IOException e) {
+                log.debug("Could not write pid file: {}", e.toString());
+            }
+        }
+    }
+
+    private static Method method(String className, String name) {
+        try {
+            return Class.forName(className).getMethod(name);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static long pid(Process process) {
+        try {
+            // Java 9+
+            Method method = Process.class.getMethod("pid");
+            return (long) method.invoke(process);
+        } catch (ReflectiveOperationException e) {
+            // Java 8 on Unix keeps the pid in a private field
+            try {
+                Field field = process.getClass().getDeclaredField("pid");
+                field.setAccessible(true);
+                return field.getInt(process);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                return -1;
+            }
+        }
+    }
+
+    private static class Owned {
+
+        private final String guildId;
+        private final List<Process> processes = new ArrayList<>();
+
+        private Owned(String guildId) {
+            this.guildId = guildId;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package audio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only log of queue changes, one file per guild, so playlists survive restarts and lost connections. Each
+ * line is one change: the voice channel, volume, loop mode, a queued track, the head track finishing or being skipped,
+ * or the playback position. Writes happen on a single thread; when a guild's file has collected more changes than
+ * the compaction threshold it is rewritten as a snapshot of the queue it describes.
+ */
+public class QueueJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueJournal.class);
+    private static final String SUFFIX = ".journal";
+    private static final Record CLOSE = new Record(null, null, null);
+
+    private final Path directory;
+    private final int compactThreshold;
+    private final BlockingQueue<Record> records = new LinkedBlockingQueue<>();
+    private final Map<String, String> voiceChannels = new ConcurrentHashMap<>();
+    // writer thread only
+    private final Map<String, Integer> uncompacted = new HashMap<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * @param compactThreshold number of changes appended to a guild's file before it is rewritten
+     */
+    public QueueJournal(Path directory, int compactThreshold) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.compactThreshold = compactThreshold;
+        this.writer = new Thread(this::write, "queue-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void voiceChannel(String guildId, String channelId) {
+        if (!channelId.equals(voiceChannels.put(guildId, channelId))) {
+            append(guildId, "J\t" + channelId);
+        }
+    }
+
+    public void enqueued(String guildId, TrackInfo info) {
+        append(guildId, trackLine(info));
+    }
+
+    /**
+     * The head track finished; a looping queue moves it to the end.
+     */
+    public void finished(String guildId) {
+        append(guildId, "N");
+    }
+
+    public void skipped(String guildId) {
+        append(guildId, "S");
+    }
+
+    public void looping(String guildId, boolean loop) {
+        append(guildId, loop ? "L\t1" : "L\t0");
+    }
+
+    public void volume(String guildId, float volume) {
+        append(guildId, "V\t" + volume);
+    }
+
+    public void position(String guildId, long millis) {
+        append(guildId, "P\t" + millis);
+    }
+
+    /**
+     * Replace everything known about a guild's queue, for changes that are not worth logging one by one.
+     */
+    public void snapshot(String guildId, GuildQueue queue) {
+        if (queue.voiceChannelId != null) {
+            voiceChannels.put(guildId, queue.voiceChannelId);
+        }
+        submit(new Record(guildId, Kind.SNAPSHOT, snapshotText(queue)));
+    }
+
+    /**
+     * Forget a guild's queue, when it was stopped on purpose.
+     */
+    public void cleared(String guildId) {
+        voiceChannels.remove(guildId);
+        submit(new Record(guildId, Kind.CLEAR, null));
+    }
+
+    /**
+     * Read the queues of every guild with a journal.
+     *
+     * @return queues by guild ID, skipping empty ones
+     */
+    public Map<String, GuildQueue> load() throws IOException {
+        Map<String, GuildQueue> queues = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                GuildQueue queue = read(file);
+                if (!queue.tracks.isEmpty()) {
+                    queues.put(name.substring(0, name.length() - SUFFIX.length()), queue);
+                }
+            }
+        }
+        return queues;
+    }
+
+    /**
+     * Stop recording and wait for pending changes to reach the disk. Changes made afterwards are ignored, so tearing
+     * down the players during shutdown does not empty their journals.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        records.add(CLOSE);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static GuildQueue read(Path file) throws IOException {
+        GuildQueue queue = new GuildQueue();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    queue.apply(line);
+                } catch (RuntimeException e) {
+                    // most likely the last line of a crashed process, cut short
+                    log.debug("Skipping journal line \"{}\" in {}: {}", line, file, e.toString());
+                }
+            }
+        }
+        return queue;
+    }
+
+    private void append(String guildId, String line) {
+        submit(new Record(guildId, Kind.APPEND, line));
+    }
+
+    private void submit(Record record) {
+        if (!closed) {
+            records.add(record);
+        }
+    }
+
+    private void write() {
+        List<Record> batch = new ArrayList<>();
+        Map<String, StringBuilder> appends = new LinkedHashMap<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(records.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            records.drainTo(batch);
+            for (Record record : batch) {
+                if (record == CLOSE) {
+                    running = false;
+                    break;
+                }
+                switch (record.kind) {
+                    case APPEND:
+                        appends.computeIfAbsent(record.guildId, id -> new StringBuilder())
+                            .append(record.text).append('\n');
+                        break;
+                    case SNAPSHOT:
+                        // earlier changes in this batch are part of the snapshot
+                        appends.remove(record.guildId);
+                        replace(record.guildId, record.text);
+                        break;
+                    case CLEAR:
+                        appends.remove(record.guildId);
+                        delete(record.guildId);
+                        break;
+                }
+            }
+            appends.forEach(this::appendToFile);
+            appends.clear();
+            batch.clear();
+        }
+    }
+
+    private void appendToFile(String guildId, StringBuilder lines) {
+        Path file = file(guildId);
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND)) {
+            out.append(lines);
+        } catch (IOException e) {
+            log.warn("Could not append to queue journal of {}: {}", guildId, e.toString());
+            return;
+        }
+        int count = uncompacted.merge(guildId, countLines(lines), Integer::sum);
+        if (count > compactThreshold) {
+            try {
+                replace(guildId, snapshotText(read(file)));
+            } catch (IOException e) {
+                log.warn("Could not compact queue journal of {}: {}", guildId, e.toString());
+            }
+        }
+    }
+
+    private void replace(String guildId, String text) {
+        Path file = file(guildId);
+        try {
+            Path temp = Files.createTempFile(directory, guildId, ".tmp");
+            try {
+                Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            uncompacted.put(guildId, 0);
+        } catch (IOException e) {
+            log.warn("Could not write queue journal of {}: {}", guildId, e.toString());
+        }
+    }
+
+    private void delete(String guildId) {
+        try {
+            Files.deleteIfExists(file(guildId));
+            uncompacted.remove(guildId);
+        } catch (IOException e) {
+            log.warn("Could not delete queue journal of {}: {}", guildId, e.toString());
+        }
+    }
+
+    private Path file(String guildId) {
+        return directory.resolve(guildId + SUFFIX);
+    }
+
+    private static int countLines(CharSequence text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String snapshotText(GuildQueue queue) {
+        StringBuilder text = new StringBuilder();
+        if (queue.voiceChannelId != null) {
+            text.append("J\t").append(queue.voiceChannelId).append('\n');
+        }
+        text.append("V\t").append(queue.volume).append('\n');
+        text.append(queue.loop ? "L\t1" : "L\t0").append('\n');
+        for (TrackInfo track : queue.tracks) {
+            text.append(trackLine(track)).append('\n');
+        }
+        if (queue.position > 0) {
+            text.append("P\t").append(queue.position).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String trackLine(TrackInfo info) {
+        String title = info.getTitle() == null ? "" : info.getTitle().replace('\t', ' ').replace('\n', ' ')
+            .replace('\r', ' ');
+        return "A\t" + info.getId() + "\t" + info.getDuration() + "\t" + title;
+    }
+
+    /**
+     * Queue of one guild as rebuilt from its journal.
+     */
+    public static class GuildQueue {
+
+        private String voiceChannelId;
+        private float volume = 0.2f;
+        private boolean loop;
+        private final List<TrackInfo> tracks = new ArrayList<>();
+        private long position;
+
+        public GuildQueue() {
+        }
+
+        public GuildQueue(String voiceChannelId, float volume, boolean loop, List<TrackInfo> tracks, long position) {
+            this.voiceChannelId = voiceChannelId;
+            this.volume = volume;
+            this.loop = loop;
+            this.tracks.addAll(tracks);
+            this.position = position;
+        }
+
+        private void apply(String line) {
+            String[] fields = line.split("\t", 4);
+            switch (fields[0]) {
+                case "J":
+                    voiceChannelId = fields[1];
+                    break;
+                case "V":
+                    volume = Float.parseFloat(fields[1]);
+                    break;
+                case "L":
+                    loop = "1".equals(fields[1]);
+                    break;
+                case "A":
+                    if (tracks.isEmpty()) {
+                        // a new head track starts from the beginning
+                        position = 0;
+                    }
+                    String title = fields[3].isEmpty() ? null : fields[3];
+                    tracks.add(new TrackInfo(fields[1], title, Long.parseLong(fields[2]), null));
+                    break;
+                case "N":
+                    if (!tracks.isEmpty()) {
+                        TrackInfo head = tracks.remove(0);
+                        if (loop) {
+                            tracks.add(head);
+                        }
+                    }
+                    position = 0;
+                    break;
+                case "S":
+                    if (!tracks.isEmpty()) {
+                        tracks.remove(0);
+                    }
+                    position = 0;
+                    break;
+                case "P":
+                    position = tracks.isEmpty() ? 0 : Long.parseLong(fields[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown journal entry");
+            }
+        }
+
+        /**
+         * @return the voice channel the bot played in, or null if unknown
+         */
+        public String getVoiceChannelId() {
+            return voiceChannelId;
+        }
+
+        public float getVolume() {
+            return volume;
+        }
+
+        public boolean isLooping() {
+            return loop;
+        }
+
+        public List<TrackInfo> getTracks() {
+            return tracks;
+        }
+
+        /**
+         * @return how far into the head track playback was, in milliseconds
+         */
+        public long getPosition() {
+            return position;
+        }
+    }
+
+    private enum Kind {
+        APPEND, SNAPSHOT, CLEAR
+    }
+
+    private static class Record {
+
+        private final String guildId;
+        private final Kind kind;
+        private final String text;
+
+        private Record(String guildId, Kind kind, String text) {
+            this.guildId = guildId;
+            this.kind = kind;
+            this.text = text;
+        }
+    }
+}
@@ -1,89 +1,338 @@
 package audio;
 
-import com.google.gson.Gson;
+import metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import sx.blah.discord.api.IDiscordClient;
 import sx.blah.discord.api.events.EventSubscriber;
-import sx.blah.discord.handle.impl.events.MessageReceivedEvent;
+import sx.blah.discord.handle.impl.events.VoiceDisconnectedEvent;
 import sx.blah.discord.handle.obj.IChannel;
+import sx.blah.discord.handle.obj.IGuild;
 import sx.blah.discord.handle.obj.IMessage;
 import sx.blah.discord.handle.obj.IUser;
 import sx.blah.discord.handle.obj.IVoiceChannel;
 import sx.blah.discord.util.MissingPermissionsException;
 import sx.blah.discord.util.audio.AudioPlayer;
 import sx.blah.discord.util.audio.events.*;
+import util.Command;
+import util.CommandBus;
 
-import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.*;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static util.DateUtil.formatDuration;
 import static util.DateUtil.formatHuman;
 import static util.DiscordUtil.*;
+import static util.PropertiesUtil.getBoolean;
+import static util.PropertiesUtil.getInteger;
+import static util.PropertiesUtil.getLong;
 
 public class StreamService {
 
     private static final Logger log = LoggerFactory.getLogger(StreamService.class);
-    private static final Pattern YOUTUBE_URL = Pattern.compile("(?:https?://)?(?:(?:(?:www\\.?)?youtube\\.com(?:/(?:(?:watch\\?.*?(v=[^&\\s]+).*)|(?:v(/.*))|(channel/.+)|(?:user/(.+))|(?:results\\?(search_query=.+))))?)|(?:youtu\\.be(/.*)?))");
-    private static final Gson GSON = new Gson();
+    private static final String YOUTUBE_DL = System.getProperty("os.name").contains("Windows") ? "youtube-dl.exe" : "youtube-dl";
+    // keeps a full status page under the message length limit
+    private static final int STATUS_PAGE_SIZE = 15;
+    private static final int STATUS_LINE_LENGTH = 100;
+    // how long a finished stream's process may take to exit before its cached copy is discarded
+    private static final long PROCESS_EXIT_TIMEOUT_SECONDS = 30;
+    private static final long PROCESS_EXIT_GRACE_SECONDS = 5;
+    // metadata key of tracks rebuilt from the queue journal
+    private static final String RESTORED = "restored";
+
+    private final MetadataCache metadataCache;
+    private final AudioCache audioCache;
+    private final OutputFormat outputFormat;
+    private final Prefetcher prefetcher;
+    private final ProcessOutputDrainer drainer;
+    private final PlaylistLoader playlistLoader;
+    private final ProcessRegistry processRegistry;
+    private final Map<String, PlaylistView> playlistViews = new ConcurrentHashMap<>();
+    private final Map<String, AudioPlayer> players = new ConcurrentHashMap<>();
+    private final long enqueueTimeout;
+    private final long listTimeout;
+    private final ScheduledExecutorService timer;
+    private final QueueJournal journal;
+
+    public StreamService(Properties properties) {
+        this.metadataCache = new MetadataCache(getInteger(properties, "metadata-cache-size", 512),
+            getLong(properties, "metadata-cache-ttl-minutes", 60), TimeUnit.MINUTES);
+        this.outputFormat = OutputFormat.fromName(properties.getProperty("audio-output-format"), OutputFormat.PCM);
+        this.audioCache = newAudioCache(properties);
+        this.prefetcher = new Prefetcher(getInteger(properties, "prefetch-depth", 2),
+            getInteger(properties, "prefetch-concurrency", 4), this::onTrackResolved);
+        this.drainer = new ProcessOutputDrainer(getInteger(properties, "process-drain-threads", 2),
+            getInteger(properties, "process-log-rate", 20));
+        this.processRegistry = new ProcessRegistry(Paths.get(properties.getProperty("pid-file", "musicbot.pids")));
+        processRegistry.reapOrphans();
+        this.playlistLoader = new PlaylistLoader(YOUTUBE_DL, drainer, processRegistry,
+            getInteger(properties, "playlist-metadata-concurrency", 4));
+        this.enqueueTimeout = getLong(properties, "enqueue-timeout-seconds", 60);
+        this.listTimeout = getLong(properties, "playlist-timeout-seconds", 120);
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stream-service-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.journal = newQueueJournal(properties);
+        if (journal != null) {
+            long period = getLong(properties, "journal-position-seconds", 10);
+            timer.scheduleWithFixedDelay(this::journalPositions, period, period, TimeUnit.SECONDS);
+        }
+        // ffmpeg starts after youtube-dl finished downloading, record it for reapOrphans once it runs
+        timer.scheduleWithFixedDelay(processRegistry::recordPids, 5, 5, TimeUnit.SECONDS);
+        Metrics.gauge("musicbot_playlist_depth", "Tracks in the playlist of each guild", "guild",
+            this::getPlaylistDepths);
+        Metrics.gauge("musicbot_subprocesses", "Running youtube-dl processes per guild", "guild",
+            processRegistry::getLiveCountByGuild);
+        Metrics.gauge("musicbot_prefetch_queue_depth", "Tracks waiting for a prefetch thread",
+            prefetcher::getQueueDepth);
+        Metrics.gauge("musicbot_drained_processes", "Processes whose output is being drained",
+            drainer::getActiveCount);
+        Metrics.gauge("musicbot_metadata_cache_size", "Entries in the metadata cache", metadataCache::size);
+    }
+
+    /**
+     * Stop every subprocess and background worker owned by this service.
+     */
+    public void shutdown() {
+        if (journal != null) {
+            journalPositions();
+            journal.close();
+        }
+        processRegistry.releaseAll();
+        prefetcher.shutdown();
+        timer.shutdownNow();
+        playlistLoader.shutdown();
+        drainer.shutdown();
+        if (audioCache != null) {
+            audioCache.shutdown();
+        }
+    }
+
+    /**
+     * @return the number of tracks in each guild's playlist, by guild ID
+     */
+    public Map<String, Integer> getPlaylistDepths() {
+        Map<String, Integer> depths = new HashMap<>();
+        playlistViews.forEach((guildId, view) -> depths.put(guildId, view.size()));
+        return depths;
+    }
+
+    /**
+     * @return the number of youtube-dl processes currently running
+     */
+    public int getLiveProcessCount() {
+        return processRegistry.getLiveCount();
+    }
+
+    private void release(AudioPlayer.Track track) {
+        LazyAudioProvider provider = Prefetcher.lazyProvider(track);
+        if (provider != null) {
+            provider.close();
+            processRegistry.release(provider);
+        }
+    }
+
+    /**
+     * Release a track that played to its end. Its process is left a grace period to exit by itself, since killing it
+     * would fail the exit check that decides whether the audio cache keeps its output.
+     */
+    private void releaseFinished(AudioPlayer.Track track) {
+        LazyAudioProvider provider = Prefetcher.lazyProvider(track);
+        if (provider != null) {
+            provider.close();
+            try {
+                timer.schedule(() -> processRegistry.release(provider), PROCESS_EXIT_GRACE_SECONDS, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException e) {
+                processRegistry.release(provider);
+            }
+        }
+    }
 
-    @EventSubscriber
-    public void onMessage(MessageReceivedEvent e) {
-        IMessage message = e.getMessage();
-        String content = message.getContent().toLowerCase();
-        if (content.startsWith("!q ") || content.startsWith("!queue ")) {
-            processCommand(() -> queueCommand(e));
-        } else if (content.startsWith("!qx ")) {
-            processCommand(() -> queueUrlCommand(e));
-        } else if (content.equals("!s") || content.equals("!skip")) {
-            processCommand(() -> skipCommand(e));
-        } else if (content.startsWith("!v ") || content.startsWith("!volume ")) {
-            processCommand(() -> volumeCommand(e));
-        } else if (content.equals("!status")) {
-            processCommand(() -> statusCommand(e));
-        } else if (content.equals("!stop")) {
-            processCommand(() -> stopCommand(e));
-        } else if (content.equals("!pause")) {
-            processCommand(() -> pauseCommand(e, true));
-        } else if (content.equals("!resume")) {
-            processCommand(() -> pauseCommand(e, false));
-        } else if (content.startsWith("!rewindto ")) {
-            processCommand(() -> rewindToCommand(e));
-        } else if (content.startsWith("!forwardto ")) {
-            processCommand(() -> fastForwardToCommand(e));
-        } else if (content.startsWith("!rewind ")) {
-            processCommand(() -> rewindCommand(e));
-        } else if (content.startsWith("!forward ")) {
-            processCommand(() -> fastForwardCommand(e));
-        } else if (content.equals("!shuffle")) {
-            processCommand(() -> shuffleCommand(e));
-        } else if (content.equals("!loop")) {
-            processCommand(() -> toggleLoopCommand(e));
-        } else if (content.equals("!help")) {
-            processCommand(() -> helpCommand(e));
-        }
-    }
-
-    private void helpCommand(MessageReceivedEvent event) {
-        IMessage message = event.getMessage();
+    private QueueJournal newQueueJournal(Properties properties) {
+        if (!getBoolean(properties, "journal-enabled", true)) {
+            return null;
+        }
+        Path directory = Paths.get(properties.getProperty("journal-dir", "journal"));
+        try {
+            return new QueueJournal(directory, getInteger(properties, "journal-compact-threshold", 256));
+        } catch (IOException e) {
+            log.warn("Could not initialize queue journal, continuing without it: {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Rebuild the queues recorded in the journal for guilds whose player is empty, such as after a restart or a
+     * reconnect that lost the players. Tracks are queued unresolved, so only the head of each queue starts youtube-dl.
+     *
+     * @param owns whether this process should serve a guild
+     */
+    public void restoreQueues(IDiscordClient client, Predicate<String> owns) {
+        if (journal == null) {
+            return;
+        }
+        timer.execute(() -> {
+            long start = System.nanoTime();
+            Map<String, QueueJournal.GuildQueue> queues;
+            try {
+                queues = journal.load();
+            } catch (IOException e) {
+                log.warn("Could not read queue journal: {}", e.toString());
+                return;
+            }
+            int restored = 0;
+            int tracks = 0;
+            for (Map.Entry<String, QueueJournal.GuildQueue> entry : queues.entrySet()) {
+                IGuild guild = client.getGuildByID(entry.getKey());
+                if (guild != null && owns.test(guild.getID()) && restoreQueue(client, guild, entry.getValue())) {
+                    restored++;
+                    tracks += entry.getValue().getTracks().size();
+                }
+            }
+            AudioMetrics.QUEUE_RESTORE_SECONDS.observeSince(start);
+            log.info("Restored {} queues with {} tracks in {} ms", restored, tracks,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        });
+    }
+
+    private boolean restoreQueue(IDiscordClient client, IGuild guild, QueueJournal.GuildQueue queue) {
+        AudioPlayer player = AudioPlayer.getAudioPlayerForGuild(guild);
+        if (player.getPlaylistSize() > 0) {
+            return false;
+        }
+        IVoiceChannel voiceChannel = queue.getVoiceChannelId() == null ? null
+            : client.getVoiceChannelByID(queue.getVoiceChannelId());
+        if (voiceChannel == null) {
+            log.debug("Not restoring queue of {}: voice channel is gone", guild.getID());
+            return false;
+        }
+        try {
+            if (!voiceChannel.isConnected()) {
+                voiceChannel.join();
+            }
+        } catch (MissingPermissionsException e) {
+            log.debug("Not restoring queue of {}: cannot join voice", guild.getID());
+            return false;
+        }
+        player.setVolume(queue.getVolume());
+        player.setLoop(queue.isLooping());
+        for (TrackInfo info : queue.getTracks()) {
+            AudioPlayer.Track track = newYouTubeTrack(player, info.getId(), null);
+            track.getMetadata().put(TrackInfo.KEY, info);
+            // already in the journal
+            track.getMetadata().put(RESTORED, Boolean.TRUE);
+            player.queue(track);
+        }
+        AudioPlayer.Track head = player.getCurrentTrack();
+        LazyAudioProvider provider = head == null ? null : Prefetcher.lazyProvider(head);
+        if (provider != null && queue.getPosition() > 0) {
+            provider.getResolution().thenRun(() -> head.fastForwardTo(queue.getPosition()));
+        }
+        prefetcher.refresh(player);
+        // rewrite the journal without the history that led here
+        journal.snapshot(guild.getID(), queue);
+        return true;
+    }
+
+    private QueueJournal.GuildQueue journalState(AudioPlayer player) {
+        List<TrackInfo> tracks = new ArrayList<>();
+        for (AudioPlayer.Track track : player.getPlaylist()) {
+            TrackInfo info = TrackInfo.of(track);
+            if (info != null) {
+                tracks.add(info);
+            }
+        }
+        AudioPlayer.Track current = player.getCurrentTrack();
+        return new QueueJournal.GuildQueue(connectedVoiceChannel(player.getGuild()).map(IVoiceChannel::getID)
+            .orElse(null), player.getVolume(), player.isLooping(), tracks,
+            current == null ? 0 : Math.max(0, current.getCurrentTrackTime()));
+    }
+
+    private void journalPositions() {
+        players.forEach((guildId, player) -> {
+            AudioPlayer.Track current = player.getCurrentTrack();
+            if (current != null && !player.isPaused() && current.getCurrentTrackTime() > 0) {
+                journal.position(guildId, current.getCurrentTrackTime());
+            }
+        });
+    }
+
+    private static Optional<IVoiceChannel> connectedVoiceChannel(IGuild guild) {
+        return guild.getClient().getConnectedVoiceChannels().stream()
+            .filter(channel -> guild.equals(channel.getGuild()))
+            .findFirst();
+    }
+
+    private AudioCache newAudioCache(Properties properties) {
+        if (!getBoolean(properties, "audio-cache-enabled", true)) {
+            return null;
+        }
+        Path directory = Paths.get(properties.getProperty("audio-cache-dir", "cache"));
+        // cached audio is stored in the output format, so PCM fills the same budget with ten times fewer tracks
+        long maxBytes = getLong(properties, "audio-cache-max-mb", 1024) * 1024 * 1024;
+        try {
+            return new AudioCache(directory, maxBytes);
+        } catch (IOException e) {
+            log.warn("Could not initialize audio cache, continuing without it: {}", e.toString());
+            return null;
+        }
+    }
+
+    public void registerCommands(CommandBus bus) {
+        bus.registerResolving(this::queueCommand, 1, Integer.MAX_VALUE, "!q", "!queue");
+        bus.registerResolving(this::queueUrlCommand, 1, Integer.MAX_VALUE, "!qx");
+        bus.register(this::skipCommand, 0, 0, "!s", "!skip");
+        bus.register(this::volumeCommand, 1, Integer.MAX_VALUE, "!v", "!volume");
+        bus.register(this::statusCommand, 0, 1, "!status");
+        bus.register(this::stopCommand, 0, 0, "!stop");
+        bus.register(c -> pauseCommand(c, true), 0, 0, "!pause");
+        bus.register(c -> pauseCommand(c, false), 0, 0, "!resume");
+        bus.register(this::rewindToCommand, 1, Integer.MAX_VALUE, "!rewindto");
+        bus.register(this::fastForwardToCommand, 1, Integer.MAX_VALUE, "!forwardto");
+        bus.register(this::rewindCommand, 1, Integer.MAX_VALUE, "!rewind");
+        bus.register(this::fastForwardCommand, 1, Integer.MAX_VALUE, "!forward");
+        bus.register(this::shuffleCommand, 0, 0, "!shuffle");
+        bus.register(this::toggleLoopCommand, 0, 0, "!loop");
+        bus.register(this::helpCommand, 0, 0, "!help");
+    }
+
+    private void helpCommand(Command command) {
+        IMessage message = command.getMessage();
         IChannel channel = message.getChannel();
         sendMessage(channel, "Commands: !q, !queue, !s, !skip, !v, !volume, !status, !stop, !pause, !resume, " +
             "!rewindto, !forwardto, !rewind, !forward, !shuffle, !loop");
     }
 
-    private void statusCommand(MessageReceivedEvent event) {
-        IMessage message = event.getMessage();
+    private void statusCommand(Command command) {
+        IMessage message = command.getMessage();
         IChannel channel = message.getChannel();
         if (channel.isPrivate()) {
             return;
@@ -92,9 +341,9 @@ public class StreamService {
         AudioPlayer.Track track = player.getCurrentTrack();
         if (track != null) {
             String source;
-            Map<String, Object> metadata = track.getMetadata();
-            if (metadata.containsKey("title")) {
-                source = String.format("`%s` %s", metadata.get("url").toString(), metadata.get("title").toString());
+            TrackInfo info = TrackInfo.of(track);
+            if (info != null && info.getTitle() != null) {
+                source = "`" + info.getId() + "` " + info.getTitle();
             } else {
                 source = getSource(track);
             }
@@ -102,45 +351,57 @@ public class StreamService {
             int volume = (int) (player.getVolume() * 100);
             StringBuilder response = new StringBuilder();
             response.append(player.isPaused() ? "**Paused:** " : "**Playing:** ")
-                .append(source).append(" ").append(prettyDuration(total, metadata));
+                .append(source).append(" ").append(prettyDuration(total, info));
             if (player.isLooping()) {
                 response.append(" [Looping]");
             }
+            String pageArg = command.getArg(0);
+            PlaylistView.Page page = playlistView(player).page(player.getPlaylist(),
+                pageArg.isEmpty() ? 1 : parseInteger(pageArg, 1), STATUS_PAGE_SIZE);
             response.append("\n**Volume:** ").append(volume).append("\n")
-                .append("**Playlist:**\n\n").append(playlistToString(player)).append("\n");
+                .append("**Playlist:** ").append(page.getTracks()).append(page.getTracks() == 1 ? " track" : " tracks");
+            if (page.getPages() > 1) {
+                response.append(", page ").append(page.getNumber()).append("/").append(page.getPages())
+                    .append(" (`!status <page>`)");
+            }
+            response.append("\n\n").append(page.getText()).append("\n");
             sendMessage(channel, response.toString());
         } else {
             sendMessage(channel, "Playlist is empty");
         }
     }
 
-    private String prettyDuration(long millis, Map<String, Object> metadata) {
+    private String prettyDuration(long millis, TrackInfo info) {
+        String duration = info != null ? info.getFormattedDuration() : null;
         if (millis >= 0) {
-            if (metadata.containsKey("duration")) {
-                return "[" + formatDuration(Duration.ofMillis(millis)) + "/" + metadata.get("duration").toString() + "]";
+            if (duration != null) {
+                return "[" + formatDuration(Duration.ofMillis(millis)) + "/" + duration + "]";
             } else {
                 return "[" + formatDuration(Duration.ofMillis(millis)) + "]";
             }
-        } else if (metadata.containsKey("duration")) {
-            return "[?/" + metadata.get("duration").toString() + "]";
+        } else if (duration != null) {
+            return "[?/" + duration + "]";
         } else {
             return "";
         }
     }
 
-    private void stopCommand(MessageReceivedEvent event) {
-        IMessage message = event.getMessage();
+    private void stopCommand(Command command) {
+        IMessage message = command.getMessage();
         IChannel channel = message.getChannel();
         if (channel.isPrivate()) {
             return;
         }
-        event.getClient().getConnectedVoiceChannels().stream()
+        if (journal != null) {
+            journal.cleared(message.getGuild().getID());
+        }
+        command.getEvent().getClient().getConnectedVoiceChannels().stream()
             .filter(ch -> ch.getGuild().equals(message.getGuild()))
             .findFirst().ifPresent(IVoiceChannel::leave);
     }
 
-    private void pauseCommand(MessageReceivedEvent event, boolean pause) {
-        IMessage message = event.getMessage();
+    private void pauseCommand(Command command, boolean pause) {
+        IMessage message = command.getMessage();
         IChannel channel = message.getChannel();
         if (channel.isPrivate()) {
             return;
@@ -150,64 +411,60 @@ public class StreamService {
         sendMessage(channel, ":ok_hand:");
     }
 
-    private void rewindToCommand(MessageReceivedEvent event) {
-        IMessage message = event.getMessage();
+    private void rewindToCommand(Command command) {
+        IMessage message = command.getMessage();
         IChannel channel = message.getChannel();
         if (channel.isPrivate()) {
             return;
         }
-        String content = message.getContent();
-        long ms = Math.max(0, parseLong(content.split(" ")[1], 5000));
+        long ms = Math.max(0, parseLong(command.getArg(0), 5000));
         String duration = formatHuman(Duration.ofMillis(ms), true);
         AudioPlayer player = AudioPlayer.getAudioPlayerForGuild(message.getGuild());
         player.getCurrentTrack().rewindTo(ms);
         sendMessage(channel, ":rewind: to " + duration);
     }
 
-    private void fastForwardToCommand(MessageReceivedEvent event) {
-        IMessage message = event.getMessage();
+    private void fastForwardToCommand(Command command) {
+        IMessage message = command.getMessage();
         IChannel channel = message.getChannel();
         if (channel.isPrivate()) {
             return;
         }
-        String content = message.getContent();
-        long ms = Math.max(0, parseLong(content.split(" ")[1], 5000));
+        long ms = Math.max(0, parseLong(command.getArg(0), 5000));
         String duration = formatHuman(Duration.ofMillis(ms), true);
         AudioPlayer player = AudioPlayer.getAudioPlayerForGuild(message.getGuild());
         player.getCurrentTrack().fastForwardTo(ms);
         sendMessage(channel, ":fast_forward: to " + duration);
     }
 
-    private void rewindCommand(MessageReceivedEvent event) {
-        IMessage message = event.getMessage();
+    private void rewindCommand(Command command) {
+        IMessage message = command.getMessage();
         IChannel channel = message.getChannel();
         if (channel.isPrivate()) {
             return;
         }
-        String content = message.getContent();
-        long ms = Math.max(0, parseLong(content.split(" ")[1], 5000));
+        long ms = Math.max(0, parseLong(command.getArg(0), 5000));
         String duration = formatHuman(Duration.ofMillis(ms), true);
         AudioPlayer player = AudioPlayer.getAudioPlayerForGuild(message.getGuild());
         player.getCurrentTrack().rewind(ms);
         sendMessage(channel, ":rewind: by " + duration);
     }
 
-    private void fastForwardCommand(MessageReceivedEvent event) {
-        IMessage message = event.getMessage();
+    private void fastForwardCommand(Command command) {
+        IMessage message = command.getMessage();
         IChannel channel = message.getChannel();
         if (channel.isPrivate()) {
             return;
         }
-        String content = message.getContent();
-        long ms = Math.max(0, parseLong(content.split(" ")[1], 5000));
+        long ms = Math.max(0, parseLong(command.getArg(0), 5000));
         String duration = formatHuman(Duration.ofMillis(ms), true);
         AudioPlayer player = AudioPlayer.getAudioPlayerForGuild(message.getGuild());
         player.getCurrentTrack().fastForward(ms);
         sendMessage(channel, ":fast_forward: by " + duration);
     }
 
-    private void shuffleCommand(MessageReceivedEvent event) {
-        IMessage message = event.getMessage();
+    private void shuffleCommand(Command command) {
+        IMessage message = command.getMessage();
         IChannel channel = message.getChannel();
         if (channel.isPrivate()) {
             return;
@@ -217,8 +474,8 @@ public class StreamService {
         sendMessage(channel, ":ok_hand:");
     }
 
-    private void toggleLoopCommand(MessageReceivedEvent event) {
-        IMessage message = event.getMessage();
+    private void toggleLoopCommand(Command command) {
+        IMessage message = command.getMessage();
         IChannel channel = message.getChannel();
         if (channel.isPrivate()) {
             return;
@@ -228,37 +485,35 @@ public class StreamService {
         sendMessage(channel, "Loop mode: " + (player.isLooping() ? "ON" : "OFF"));
     }
 
-    private void volumeCommand(MessageReceivedEvent event) {
-        IMessage message = event.getMessage();
-        String content = message.getContent();
+    private void volumeCommand(Command command) {
+        IMessage message = command.getMessage();
         IChannel channel = message.getChannel();
         if (channel.isPrivate()) {
             return;
         }
-        int volume = Math.max(0, Math.min(100, parseInteger(content.split(" ", 2)[1], 20)));
+        int volume = Math.max(0, Math.min(100, parseInteger(command.getArg(0), 20)));
         AudioPlayer player = AudioPlayer.getAudioPlayerForGuild(message.getGuild());
         log.debug("Setting volume to {}% ({})", volume, volume / 100f);
         player.setVolume(volume / 100f);
         sendMessage(channel, ":ok_hand:");
     }
 
-    private void skipCommand(MessageReceivedEvent event) {
-        IMessage message = event.getMessage();
+    private void skipCommand(Command command) {
+        IMessage message = command.getMessage();
         if (!message.getChannel().isPrivate()) {
             AudioPlayer player = AudioPlayer.getAudioPlayerForGuild(message.getGuild());
             player.skip();
         }
     }
 
-    private void queueCommand(MessageReceivedEvent event) {
-        IMessage message = event.getMessage();
-        String content = message.getContent();
+    private void queueCommand(Command command) {
+        IMessage message = command.getMessage();
         IChannel channel = message.getChannel();
         if (channel.isPrivate()) {
             sendMessage(channel, "This command does not work with private messages");
             return;
         }
-        String url = content.trim().split(" ", 2)[1].trim();
+        String url = command.getRemainder();
         if (url.isEmpty()) {
             sendMessage(channel, "You have to enter a YouTube URL");
             return;
@@ -271,19 +526,7 @@ public class StreamService {
             Optional<String> id = extractVideoId(url);
             if (id.isPresent()) {
                 log.debug("Preparing to queue video ID: {}", id.get());
-                if (queueFromYouTube(player, id.get(), null)) {
-                    IUser user = message.getAuthor();
-                    Optional<Metadata> metadata = getMetadataFromId(id.get());
-                    if (metadata.isPresent()) {
-                        Metadata m = metadata.get();
-                        String title = m.getTitle();
-                        String duration = formatDuration(Duration.ofSeconds(m.getDuration()));
-                        sendMessage(channel, user.getName() + "#" + user.getDiscriminator() + " added **" + title + "** [" + duration + "]");
-                    } else {
-                        sendMessage(channel, user.getName() + "#" + user.getDiscriminator() + " added `" + id.get() + "` to the playlist");
-                    }
-                    deleteMessage(message);
-                }
+                enqueue(command, player, id.get(), "`" + id.get() + "`", true);
             } else {
                 log.debug("Could not extract valid ID from URL: {}", url);
                 sendMessage(channel, "Nothing to queue, something happened");
@@ -292,26 +535,25 @@ public class StreamService {
         }
     }
 
-    private void queueUrlCommand(MessageReceivedEvent event) {
-        IMessage message = event.getMessage();
-        String content = message.getContent();
+    private void queueUrlCommand(Command command) {
+        IMessage message = command.getMessage();
         IChannel channel = message.getChannel();
         if (channel.isPrivate()) {
             sendMessage(channel, "This command does not work with private messages");
             return;
         }
-        String[] args = content.trim().split(" ");
-        String url = args[1].trim();
+        List<String> args = command.getArgs();
+        String url = args.get(0);
         if (url.isEmpty()) {
             sendMessage(channel, "You have to enter a URL");
             return;
         }
         Map<String, String> variables = new LinkedHashMap<>();
-        if (args.length > 2) {
-            variables.put("--playlist-start", args[2]);
+        if (args.size() > 1) {
+            variables.put("--playlist-start", args.get(1));
         }
-        if (args.length > 3) {
-            variables.put("--playlist-end", args[3]);
+        if (args.size() > 2) {
+            variables.put("--playlist-end", args.get(2));
         }
         Optional<IVoiceChannel> voiceChannel = message.getAuthor().getConnectedVoiceChannels()
             .stream().filter(v -> !v.isConnected() && message.getGuild().equals(v.getGuild()))
@@ -319,22 +561,152 @@ public class StreamService {
         if (tryJoin(voiceChannel, message)) {
             AudioPlayer player = AudioPlayer.getAudioPlayerForGuild(message.getGuild());
             log.debug("Preparing to process URL into queue: {}", url);
-            if (queueFromYouTube(player, url, variables)) {
-                IUser user = message.getAuthor();
-                Optional<Metadata> metadata = getMetadataFromId(url);
-                if (metadata.isPresent()) {
-                    Metadata m = metadata.get();
-                    String title = m.getTitle();
-                    String duration = formatDuration(Duration.ofSeconds(m.getDuration()));
-                    sendMessage(channel, user.getName() + "#" + user.getDiscriminator() + " added **" + title + "** [" + duration + "]");
+            CompletableFuture<PlaylistLoader.Playlist> listing = playlistLoader.list(url, variables,
+                player.getGuild().getID());
+            // giving up on the listing kills its process, so a stalled extractor can't hang around
+            ScheduledFuture<?> deadline = timer.schedule(() -> listing.completeExceptionally(new TimeoutException()),
+                listTimeout, TimeUnit.SECONDS);
+            listing.whenComplete((playlist, e) -> {
+                deadline.cancel(false);
+                try {
+                    if (e != null) {
+                        listingFailed(command, url, e);
+                    } else {
+                        queuePlaylist(command, player, url, playlist);
+                    }
+                } catch (RuntimeException ex) {
+                    // nothing else sees what happens after the listing completes
+                    log.warn("Could not queue the contents of {}", url, ex);
+                }
+            });
+        }
+    }
+
+    private void listingFailed(Command command, String url, Throwable error) {
+        IMessage message = command.getMessage();
+        IUser user = message.getAuthor();
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof TimeoutException) {
+            log.info("Listing {} took longer than {} seconds, gave up", url, listTimeout);
+            sendMessage(message.getChannel(), user.getName() + "#" + user.getDiscriminator() + ": could not queue <" +
+                url + ">, listing it took longer than " + listTimeout + " seconds");
+        } else {
+            log.warn("Could not list URL contents: {}", cause.toString());
+            sendMessage(message.getChannel(), "Nothing to queue, something happened");
+        }
+        deleteMessage(message);
+    }
+
+    private void queuePlaylist(Command command, AudioPlayer player, String url, PlaylistLoader.Playlist playlist) {
+        IMessage message = command.getMessage();
+        IChannel channel = message.getChannel();
+        IUser user = message.getAuthor();
+        if (!playlist.getEntries().isEmpty()) {
+            for (PlaylistLoader.Entry entry : playlist.getEntries()) {
+                queuePlaylistEntry(player, entry);
+            }
+            int count = playlist.getEntries().size();
+            String name = playlist.getTitle() != null ? "**" + playlist.getTitle() + "**" : "<" + url + ">";
+            sendMessage(channel, user.getName() + "#" + user.getDiscriminator() + " added " + count + " track" +
+                (count == 1 ? "" : "s") + " from " + name);
+            deleteMessage(message);
+            return;
+        }
+        // listing the URL already showed it exists
+        enqueue(command, player, url, "<" + url + ">", false);
+    }
+
+    /**
+     * Queue a track and acknowledge it right away, then make sure it can play in the background. A track that cannot
+     * be resolved within the enqueue timeout is removed from the playlist and reported.
+     *
+     * @param label  how to refer to the track until its title is known
+     * @param verify whether to fetch the info of a track outside the prefetch window to check it exists
+     */
+    private void enqueue(Command command, AudioPlayer player, String id, String label, boolean verify) {
+        IMessage message = command.getMessage();
+        IChannel channel = message.getChannel();
+        IUser user = message.getAuthor();
+        String name = user.getName() + "#" + user.getDiscriminator();
+        AudioPlayer.Track track = queueFromYouTube(player, new TrackInfo(id), null);
+        Optional<Metadata> known = metadataCache.get(id);
+        if (known.isPresent()) {
+            Metadata m = known.get();
+            String duration = formatDuration(Duration.ofSeconds(m.getDuration()));
+            sendMessage(channel, name + " added **" + m.getTitle() + "** [" + duration + "]");
+        } else {
+            sendMessage(channel, name + " added " + label + " to the playlist");
+        }
+        deleteMessage(message);
+        AudioMetrics.ENQUEUE_ACK_SECONDS.observeSince(command.getReceivedNanos());
+
+        AtomicBoolean reported = new AtomicBoolean();
+        Consumer<String> fail = reason -> {
+            if (reported.compareAndSet(false, true)) {
+                log.info("Dropping [{}] from the playlist: {}", id, reason);
+                drop(player, track);
+                sendMessage(channel, name + ": could not queue " + label + ", " + reason);
+            }
+        };
+        LazyAudioProvider provider = Prefetcher.lazyProvider(track);
+        CompletableFuture<?> settled;
+        if (provider.getState() != LazyAudioProvider.State.PENDING) {
+            settled = provider.getResolution().whenComplete((ignored, e) -> {
+                if (e == null) {
+                    AudioMetrics.ENQUEUE_PLAYABLE_SECONDS.observeSince(command.getReceivedNanos());
+                } else if (!(e instanceof CancellationException)) {
+                    // a cancelled track was skipped or stopped, which needs no report
+                    fail.accept("it could not be played");
+                }
+            });
+        } else if (verify && !known.isPresent()) {
+            // outside the prefetch window: check the video exists now rather than when it is about to play
+            settled = playlistLoader.fetchInfo(id).thenRun(() -> {
+                if (getMetadataFromId(id).isPresent()) {
+                    onTrackResolved(track);
                 } else {
-                    sendMessage(channel, user.getName() + "#" + user.getDiscriminator() + " added <" + url + ">");
+                    fail.accept("it was not found");
                 }
-                deleteMessage(message);
+            });
+        } else {
+            return;
+        }
+        timer.schedule(() -> {
+            if (!settled.isDone()) {
+                fail.accept("loading took longer than " + enqueueTimeout + " seconds");
+            }
+        }, enqueueTimeout, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Remove a track from the playlist, wherever it is, and release its stream.
+     */
+    private void drop(AudioPlayer player, AudioPlayer.Track track) {
+        if (player.getCurrentTrack() == track) {
+            // the skip event releases it
+            player.skip();
+        } else if (player.getPlaylist().remove(track)) {
+            playlistView(player).remove(track);
+            release(track);
+            prefetcher.refresh(player);
+            if (journal != null) {
+                journal.snapshot(player.getGuild().getID(), journalState(player));
             }
         }
     }
 
+    private void queuePlaylistEntry(AudioPlayer player, PlaylistLoader.Entry entry) {
+        // with its title from the listing, so the journal and the playlist view record it complete
+        AudioPlayer.Track track = queueFromYouTube(player,
+            new TrackInfo(entry.getUrl(), entry.getTitle(), entry.getDuration(), null), null);
+        LazyAudioProvider provider = Prefetcher.lazyProvider(track);
+        // tracks inside the prefetch window write their info file while resolving
+        if (provider != null && provider.getState() == LazyAudioProvider.State.PENDING
+            && !metadataCache.get(entry.getUrl()).isPresent()) {
+            playlistLoader.fetchInfo(entry.getUrl()).thenRun(() -> onTrackResolved(track));
+        }
+    }
+
     private boolean tryJoin(Optional<IVoiceChannel> voiceChannel, IMessage message) {
         if (voiceChannel.isPresent() && !voiceChannel.get().isConnected()) {
             try {
@@ -351,27 +723,49 @@ public class StreamService {
         }
     }
 
-    private Optional<String> extractVideoId(String url) {
-        Matcher matcher = YOUTUBE_URL.matcher(url);
-        if (matcher.find()) {
-            String group1 = matcher.group(1);
-            String group2 = matcher.group(2);
-            String group6 = matcher.group(6);
-            if (group1 != null && !group1.isEmpty()) {
-                return Optional.of(group1.substring(2)); // strip "v="
-            } else if (group2 != null && !group2.isEmpty() && !group2.substring(1).isEmpty()) {
-                return Optional.of(group2.substring(1)); // strip "/"
-            } else if (group6 != null && !group6.isEmpty() && !group6.substring(1).isEmpty()) {
-                return Optional.of(group6.substring(1)); // strip "/"
+    static Optional<String> extractVideoId(String url) {
+        return YouTubeUrl.extractVideoId(url);
+    }
+
+    private AudioPlayer.Track queueFromYouTube(AudioPlayer audioPlayer, TrackInfo info,
+        Map<String, String> variables) {
+        AudioPlayer.Track track = newYouTubeTrack(audioPlayer, info.getId(), variables);
+        track.getMetadata().put(TrackInfo.KEY, info);
+        audioPlayer.queue(track);
+        prefetcher.refresh(audioPlayer);
+        return track;
+    }
+
+    private AudioPlayer.Track newYouTubeTrack(AudioPlayer audioPlayer, String id, Map<String, String> variables) {
+        String guildId = audioPlayer.getGuild().getID();
+        LazyAudioProvider provider = new LazyAudioProvider(id, p -> openStream(p, guildId, variables),
+            () -> prefetcher.refresh(audioPlayer));
+        return new AudioPlayer.Track(provider);
+    }
+
+    private AudioInputStream openStream(LazyAudioProvider provider, String guildId, Map<String, String> variables)
+        throws IOException, UnsupportedAudioFileException {
+        String id = provider.getId();
+        long start = System.nanoTime();
+        boolean cacheable = audioCache != null && variables == null && audioCache.isCacheable(id);
+        if (cacheable) {
+            long length = audioCache.length(id, outputFormat.getExtension());
+            Optional<InputStream> cached = audioCache.open(id, outputFormat.getExtension());
+            if (cached.isPresent()) {
+                try {
+                    AudioInputStream stream = outputFormat.open(
+                        AudioMetrics.timeFirstByte(cached.get(), start, "cache"), length);
+                    log.debug("Opened [{}] from audio cache", id);
+                    return stream;
+                } catch (UnsupportedAudioFileException | IOException e) {
+                    log.warn("Could not open cached audio", e);
+                    closeQuietly(cached.get());
+                }
             }
         }
-        return Optional.empty();
-    }
-
-    private boolean queueFromYouTube(AudioPlayer audioPlayer, String id, Map<String, String> variables) {
-        String name = System.getProperty("os.name").contains("Windows") ? "youtube-dl.exe" : "youtube-dl";
-        ProcessBuilder builder = new ProcessBuilder(name, "--write-info-json", "-f", "worstaudio",
-            "--exec", "ffmpeg -hide_banner -nostats -loglevel panic -y -i {} -vn -q:a 5 -f mp3 pipe:1", "-o",
+        ProcessBuilder builder = new ProcessBuilder(YOUTUBE_DL, "--write-info-json", "-f", "worstaudio",
+            "--exec", "ffmpeg -hide_banner -nostats -loglevel panic -y -i {} -vn " + outputFormat.getFfmpegOptions() +
+            " pipe:1", "-o",
             "%(id)s.%(ext)s");
         if (variables != null) {
             for (Map.Entry<String, String> entry : variables.entrySet()) {
@@ -381,54 +775,76 @@ public class StreamService {
         }
         builder.command().add("--");
         builder.command().add(id);
+        Process process = AudioMetrics.start(builder, "stream");
+        processRegistry.register(provider, guildId, process);
         try {
-            Process process = builder.start();
-            try {
-                CompletableFuture.runAsync(() -> logStream(process.getErrorStream()));
-                AudioPlayer.Track track = audioPlayer.queue(AudioSystem.getAudioInputStream(process.getInputStream()));
-                track.getMetadata().put("url", id);
-                Optional<Metadata> metadata = getMetadataFromId(id);
-                metadata.ifPresent(m -> {
-                    String title = m.getTitle();
-                    String duration = formatDuration(Duration.ofSeconds(m.getDuration()));
-                    track.getMetadata().put("title", title);
-                    track.getMetadata().put("duration", duration);
-                    track.getMetadata().put("webpage_url", m.getWebpageUrl());
-                    log.info("Queued [{}] \"{}\" ({})", id, title, duration);
-                });
-                return true;
-            } catch (UnsupportedAudioFileException e) {
-                log.warn("Could not queue audio", e);
-                process.destroyForcibly();
+            drainer.register(id, process, this::logProcessEvent);
+            InputStream stream = AudioMetrics.timeFirstByte(process.getInputStream(), start, "youtube-dl");
+            if (cacheable) {
+                // buffer on top so header sniffing can mark/reset without affecting the cached copy
+                stream = new BufferedInputStream(audioCache.write(id, outputFormat.getExtension(), stream,
+                    () -> process.waitFor(PROCESS_EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS) && process.exitValue() == 0));
             }
+            return outputFormat.open(stream, -1);
+        } catch (UnsupportedAudioFileException | IOException e) {
+            processRegistry.release(provider);
+            throw e;
+        }
+    }
+
+    private void onTrackResolved(AudioPlayer.Track track) {
+        TrackInfo info = TrackInfo.of(track);
+        if (info == null) {
+            return;
+        }
+        Optional<Metadata> metadata = getMetadataFromId(info.getId());
+        metadata.ifPresent(m -> {
+            TrackInfo resolved = info.withMetadata(m);
+            track.getMetadata().put(TrackInfo.KEY, resolved);
+            playlistViews.values().forEach(view -> view.invalidate(track));
+            log.info("Resolved [{}] \"{}\" ({})", resolved.getId(), resolved.getTitle(),
+                resolved.getFormattedDuration());
+        });
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
         } catch (IOException e) {
-            log.warn("Could not start process", e);
+            log.debug("Could not close stream: {}", e.toString());
         }
-        return false;
     }
 
     private Optional<Metadata> getMetadataFromId(String id) {
+        Optional<Metadata> cached = metadataCache.get(id);
+        if (cached.isPresent()) {
+            return cached;
+        }
         try (Reader reader = Files.newBufferedReader(Paths.get(id + ".info.json"))) {
-            Metadata metadata = GSON.fromJson(reader, Metadata.class);
+            long start = System.nanoTime();
+            Metadata metadata = MetadataReader.read(reader);
+            AudioMetrics.METADATA_PARSE_SECONDS.observeSince(start);
+            metadataCache.put(id, metadata);
             return Optional.of(metadata);
-        } catch (IOException e) {
+        } catch (IOException | IllegalStateException e) {
             log.warn("Could not get video metadata: {}", e.toString());
         }
         return Optional.empty();
     }
 
-    private BufferedReader newProcessReader(InputStream stream) {
-        return new BufferedReader(new InputStreamReader(stream, Charset.forName("UTF-8")));
-    }
-
-    private void logStream(InputStream stream) {
-        try (BufferedReader input = newProcessReader(stream)) {
-            String line;
-            while ((line = input.readLine()) != null) {
-                log.info("[yt-dl] " + line);
-            }
-        } catch (IOException e) {
-            log.warn("Could not read from stream", e);
+    private void logProcessEvent(ProcessEvent event) {
+        switch (event.getType()) {
+            case ERROR:
+                log.warn("[yt-dl] [{}] {}", event.getTag(), event.getLine());
+                break;
+            case WARNING:
+                log.info("[yt-dl] [{}] {}", event.getTag(), event.getLine());
+                break;
+            case PROGRESS:
+                log.debug("[yt-dl] [{}] {}%", event.getTag(), event.getPercent());
+                break;
+            default:
+                log.info("[yt-dl] [{}] {}", event.getTag(), event.getLine());
         }
     }
 
@@ -439,47 +855,99 @@ public class StreamService {
         event.getPlayer().setVolume(0.2f);
     }
 
-    private String getSource(AudioPlayer.Track track) {
+    static String getSource(AudioPlayer.Track track) {
         if (track == null) {
             return "";
         }
+        TrackInfo info = TrackInfo.of(track);
+        if (info != null) {
+            return info.getDisplay();
+        }
         Map<String, Object> metadata = track.getMetadata();
         if (metadata.containsKey("file")) {
             return ((File) metadata.get("file")).getName();
-        } else if (metadata.containsKey("url")) {
-            if (metadata.containsKey("title")) {
-                return String.format("`%s` %s [%s]", metadata.get("url").toString(),
-                    metadata.get("title").toString(), metadata.get("duration").toString());
-            }
-            return metadata.get("url").toString();
         } else {
             return hex(track.hashCode());
         }
     }
 
+    private PlaylistView playlistView(AudioPlayer player) {
+        return playlistViews.computeIfAbsent(player.getGuild().getID(),
+            id -> new PlaylistView(StreamService::getSource, STATUS_LINE_LENGTH));
+    }
+
     @EventSubscriber
     public void onTrackStart(TrackStartEvent event) {
         log.debug("[Started] {}", getSource(event.getTrack()));
+        prefetcher.refresh(event.getPlayer());
     }
 
     @EventSubscriber
     public void onTrackEnqueue(TrackQueueEvent event) {
         log.debug("[Enqueued] {}", getSource(event.getTrack()));
+        AudioPlayer player = event.getPlayer();
+        playlistView(player).append(event.getTrack());
+        players.put(player.getGuild().getID(), player);
+        TrackInfo info = TrackInfo.of(event.getTrack());
+        if (journal != null && info != null && !event.getTrack().getMetadata().containsKey(RESTORED)) {
+            String guildId = player.getGuild().getID();
+            connectedVoiceChannel(player.getGuild()).ifPresent(channel -> journal.voiceChannel(guildId, channel.getID()));
+            journal.enqueued(guildId, info);
+        }
     }
 
     @EventSubscriber
     public void onTrackFinish(TrackFinishEvent event) {
         log.debug("[Finished] {}", getSource(event.getOldTrack()));
+        if (journal != null) {
+            journal.finished(event.getPlayer().getGuild().getID());
+        }
+        PlaylistView view = playlistView(event.getPlayer());
+        view.remove(event.getOldTrack());
+        if (event.getPlayer().isLooping()) {
+            // a looping player queues the finished track again
+            view.append(event.getOldTrack());
+        } else {
+            releaseFinished(event.getOldTrack());
+        }
+        prefetcher.refresh(event.getPlayer());
     }
 
     @EventSubscriber
     public void onTrackSkip(TrackSkipEvent event) {
         log.debug("[Skipped] {}", getSource(event.getTrack()));
+        if (journal != null) {
+            journal.skipped(event.getPlayer().getGuild().getID());
+        }
+        playlistView(event.getPlayer()).remove(event.getTrack());
+        release(event.getTrack());
+        prefetcher.refresh(event.getPlayer());
+    }
+
+    @EventSubscriber
+    public void onVoiceDisconnect(VoiceDisconnectedEvent event) {
+        IGuild guild = event.getGuild();
+        AudioPlayer player = AudioPlayer.getAudioPlayerForGuild(guild);
+        log.debug("[Voice Disconnected] Releasing {} tracks and {} subprocesses", player.getPlaylistSize(),
+            processRegistry.getLiveCountByGuild().getOrDefault(guild.getID(), 0));
+        // the journal keeps the queue so it can be restored after a reconnect, only !stop clears it
+        AudioPlayer.Track current = player.getCurrentTrack();
+        if (journal != null && current != null && current.getCurrentTrackTime() > 0) {
+            journal.position(guild.getID(), current.getCurrentTrackTime());
+        }
+        players.remove(guild.getID());
+        player.getPlaylist().forEach(this::release);
+        player.clear();
+        playlistViews.remove(guild.getID());
+        processRegistry.releaseGuild(guild.getID());
     }
 
     @EventSubscriber
     public void onVolumeChange(VolumeChangeEvent event) {
         log.debug("[Volume] {} -> {}", (int) (event.getOldValue() * 100), (int) (event.getNewValue() * 100));
+        if (journal != null) {
+            journal.volume(event.getPlayer().getGuild().getID(), event.getNewValue());
+        }
     }
 
     @EventSubscriber
@@ -493,12 +961,22 @@ public class StreamService {
 
     @EventSubscriber
     public void onShuffle(ShuffleEvent event) {
-        log.debug("Shuffling {} tracks. Current playlist: {}", event.getPlayer().getPlaylistSize(),
-            playlistToString(event.getPlayer()));
+        playlistView(event.getPlayer()).reorder(event.getPlayer().getPlaylist());
+        if (journal != null) {
+            journal.snapshot(event.getPlayer().getGuild().getID(), journalState(event.getPlayer()));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Shuffling {} tracks. Current playlist: {}", event.getPlayer().getPlaylistSize(),
+                playlistToString(event.getPlayer().getPlaylist()));
+        }
+        prefetcher.refresh(event.getPlayer());
     }
 
     @EventSubscriber
     public void onLoop(LoopStateChangeEvent event) {
+        if (journal != null) {
+            journal.looping(event.getPlayer().getGuild().getID(), event.getNewLoopState());
+        }
         if (event.getNewLoopState()) {
             log.debug("[Loop Enabled]", getSource(event.getPlayer().getCurrentTrack()));
         } else {
@@ -506,12 +984,12 @@ public class StreamService {
         }
     }
 
-    private String hex(int number) {
+    private static String hex(int number) {
         return Integer.toHexString(number);
     }
 
-    private String playlistToString(AudioPlayer player) {
-        return player.getPlaylist().stream().map(this::getSource).collect(Collectors.joining("\n"));
+    static String playlistToString(List<AudioPlayer.Track> playlist) {
+        return playlist.stream().map(StreamService::getSource).collect(Collectors.joining("\n"));
     }
 
     private int parseInteger(String input, int defaultValue) {
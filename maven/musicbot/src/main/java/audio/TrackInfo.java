@@ -0,0 +1,104 @@
+package audio;
+
+import sx.blah.discord.util.audio.AudioPlayer;
+
+import java.time.Duration;
+
+import static util.DateUtil.formatDuration;
+
+/**
+ * What is known about a queued YouTube track, kept in its metadata map under {@link #KEY}. Instances never change;
+ * resolving a track replaces its info with a more complete one, so readers always see a consistent set of fields.
+ */
+public class TrackInfo {
+
+    public static final String KEY = "info";
+
+    private final String id;
+    private final String title;
+    private final long duration;
+    private final String webpageUrl;
+    private final String formattedDuration;
+    private final String display;
+
+    public TrackInfo(String id) {
+        this(id, null, -1, null);
+    }
+
+    /**
+     * @param duration in seconds, or -1 if unknown
+     */
+    public TrackInfo(String id, String title, long duration, String webpageUrl) {
+        this.id = id;
+        this.title = title;
+        this.duration = duration;
+        this.webpageUrl = webpageUrl;
+        this.formattedDuration = duration >= 0 ? formatDuration(Duration.ofSeconds(duration)) : null;
+        this.display = render();
+    }
+
+    /**
+     * @return the info of a track, or null if it did not come from YouTube
+     */
+    public static TrackInfo of(AudioPlayer.Track track) {
+        Object info = track.getMetadata().get(KEY);
+        return info instanceof TrackInfo ? (TrackInfo) info : null;
+    }
+
+    public TrackInfo withMetadata(Metadata metadata) {
+        return new TrackInfo(id, metadata.getTitle(), metadata.getDuration(), metadata.getWebpageUrl());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the title, or null if the track was not resolved yet
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return duration in seconds, or -1 if unknown
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public String getWebpageUrl() {
+        return webpageUrl;
+    }
+
+    /**
+     * @return the duration as formatted by {@link util.DateUtil#formatDuration(Duration)}, or null if unknown
+     */
+    public String getFormattedDuration() {
+        return formattedDuration;
+    }
+
+    /**
+     * @return the ID, title and duration as shown in playlists
+     */
+    public String getDisplay() {
+        return display;
+    }
+
+    private String render() {
+        if (title == null) {
+            return id;
+        }
+        StringBuilder builder = new StringBuilder(id.length() + title.length() + 16)
+            .append('`').append(id).append("` ").append(title);
+        if (formattedDuration != null) {
+            builder.append(" [").append(formattedDuration).append(']');
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return display;
+    }
+}
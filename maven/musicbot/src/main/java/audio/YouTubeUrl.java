@@ -0,0 +1,130 @@
+package audio;
+
+import java.util.Optional;
+
+/**
+ * Recognizes YouTube URLs in user input with a single forward scan, without regular expressions or allocation.
+ * Only the first occurrence of youtube.com or youtu.be in the input is considered, and a match stops at the end of
+ * the line it starts on.
+ */
+public class YouTubeUrl {
+
+    private static final String YOUTU = "youtu";
+    private static final String LONG_HOST_REST = "be.com";
+    private static final String SHORT_HOST_REST = ".be";
+    private static final String WATCH = "watch?";
+
+    /**
+     * Find the video ID in the input.
+     *
+     * @return the start and end of the ID packed as {@code start << 32 | end}, or -1 if the input has no video ID
+     * @see #start(long)
+     * @see #end(long)
+     */
+    public static long findVideoId(String input) {
+        int host = findHost(input);
+        if (host < 0) {
+            return -1;
+        }
+        int length = input.length();
+        int path = host + YOUTU.length();
+        if (input.startsWith(SHORT_HOST_REST, path)) {
+            int slash = path + SHORT_HOST_REST.length();
+            if (slash < length && input.charAt(slash) == '/') {
+                return slice(slash + 1, lineEnd(input, slash + 1));
+            }
+            return -1;
+        }
+        int slash = path + LONG_HOST_REST.length();
+        if (slash >= length || input.charAt(slash) != '/') {
+            return -1;
+        }
+        int rest = slash + 1;
+        if (input.startsWith(WATCH, rest)) {
+            return findWatchParameter(input, rest + WATCH.length());
+        }
+        if (input.startsWith("v/", rest)) {
+            return slice(rest + 2, lineEnd(input, rest + 2));
+        }
+        return -1;
+    }
+
+    /**
+     * @return the video ID in the input, if any
+     */
+    public static Optional<String> extractVideoId(String input) {
+        long slice = findVideoId(input);
+        return slice < 0 ? Optional.empty() : Optional.of(input.substring(start(slice), end(slice)));
+    }
+
+    public static int start(long slice) {
+        return (int) (slice >>> 32);
+    }
+
+    public static int end(long slice) {
+        return (int) slice;
+    }
+
+    private static long slice(int start, int end) {
+        return end > start ? (long) start << 32 | end : -1;
+    }
+
+    /**
+     * @return the index of the first youtube.com or youtu.be host, pointing at "youtu", or -1
+     */
+    private static int findHost(String input) {
+        int from = 0;
+        int index;
+        while ((index = input.indexOf(YOUTU, from)) >= 0) {
+            int rest = index + YOUTU.length();
+            if (input.startsWith(LONG_HOST_REST, rest) || input.startsWith(SHORT_HOST_REST, rest)) {
+                return index;
+            }
+            from = index + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the first "v=" parameter on the line followed by at least one ID character. Anything in the query may
+     * precede it, including other parameters ending in "v".
+     */
+    private static long findWatchParameter(String input, int from) {
+        int length = input.length();
+        for (int i = from; i + 2 < length; i++) {
+            char c = input.charAt(i);
+            if (isLineTerminator(c)) {
+                return -1;
+            }
+            if (c == 'v' && input.charAt(i + 1) == '=' && isIdChar(input.charAt(i + 2))) {
+                int end = i + 3;
+                while (end < length && isIdChar(input.charAt(end))) {
+                    end++;
+                }
+                return slice(i + 2, end);
+            }
+        }
+        return -1;
+    }
+
+    private static int lineEnd(String input, int from) {
+        int length = input.length();
+        for (int i = from; i < length; i++) {
+            if (isLineTerminator(input.charAt(i))) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Anything but '&' and ASCII whitespace.
+     */
+    private static boolean isIdChar(char c) {
+        return c != '&' && c != ' ' && c != '\t' && c != '\n' && c != 0x0B && c != '\f' && c != '\r';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -1,20 +1,41 @@
 package bootstrap;
 
 import audio.StreamService;
+import cluster.Cluster;
+import metrics.Metrics;
+import metrics.MetricsServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sx.blah.discord.api.ClientBuilder;
 import sx.blah.discord.api.IDiscordClient;
+import sx.blah.discord.api.IShard;
 import sx.blah.discord.api.events.EventSubscriber;
 import sx.blah.discord.handle.impl.events.*;
-import sx.blah.discord.handle.obj.IMessage;
+import sx.blah.discord.handle.obj.IChannel;
+import sx.blah.discord.handle.obj.IUser;
+import sx.blah.discord.handle.obj.IVoiceChannel;
 import sx.blah.discord.util.DiscordException;
 import sx.blah.discord.util.RateLimitException;
+import util.AdmissionControl;
+import util.Command;
+import util.CommandBus;
+import util.CommandScheduler;
+import util.DiscordUtil;
+import util.OutboundScheduler;
+import util.ShardDispatcher;
 
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
+import static util.DiscordUtil.sendMessage;
+import static util.PropertiesUtil.getBoolean;
 import static util.PropertiesUtil.getInteger;
+import static util.PropertiesUtil.getLong;
 
 public class Instance {
 
@@ -23,16 +44,91 @@ public class Instance {
     private volatile IDiscordClient client;
     private final Properties properties;
     private final CountDownLatch exitLatch = new CountDownLatch(1);
+    private final CommandScheduler commandScheduler;
+    private final ShardDispatcher shardDispatcher;
+    private final AdmissionControl admissionControl;
+    private volatile StreamService streamService;
+    private volatile MetricsServer metricsServer;
+    private volatile Cluster cluster;
+    private volatile String applicationOwnerId;
 
     public Instance(Properties properties) {
         this.properties = properties;
+        this.commandScheduler = new CommandScheduler(
+            getInteger(properties, "command-workers", Runtime.getRuntime().availableProcessors()),
+            getInteger(properties, "command-blocking-workers", 8),
+            getInteger(properties, "command-queue-limit", 16));
+        this.shardDispatcher = new ShardDispatcher(Math.max(1, getInteger(properties, "shards", 1)));
+        this.admissionControl = getBoolean(properties, "admission-enabled", true) ? new AdmissionControl(
+            getInteger(properties, "admission-user-tokens", 40),
+            getInteger(properties, "admission-user-refill-per-minute", 120),
+            getInteger(properties, "admission-guild-tokens", 100),
+            getInteger(properties, "admission-guild-refill-per-minute", 300),
+            getInteger(properties, "admission-max-resolving", 6),
+            getLong(properties, "admission-resolving-timeout-seconds", 60)) : null;
+        DiscordUtil.setCoalescingWindow(getLong(properties, "message-coalesce-ms", 250), TimeUnit.MILLISECONDS);
+        registerMetrics();
+        if (getBoolean(properties, "metrics-enabled", false)) {
+            startMetricsServer();
+        }
+    }
+
+    private void registerMetrics() {
+        Metrics.gauge("musicbot_command_queue_depth", "Commands queued or running, by guild or private channel",
+            "key", commandScheduler::getQueueDepths);
+        Metrics.counter("musicbot_command_rejected_total", "Commands rejected because their queue was full", "key",
+            commandScheduler::getRejectedCounts);
+        if (admissionControl != null) {
+            Metrics.counter("musicbot_commands_throttled_total", "Commands turned away by admission control, by why",
+                "result", admissionControl::getRejectedCounts);
+            Metrics.gauge("musicbot_commands_throttled_top", "Users and guilds turned away most often, estimated",
+                "key", admissionControl::getTopRejectedCounts);
+            Metrics.gauge("musicbot_commands_resolving", "Commands resolving tracks with external processes",
+                admissionControl::getResolving);
+            Metrics.counter("musicbot_commands_resolving_expired_total",
+                "Resolving slots taken back from commands that held them too long", admissionControl::getExpiredCount);
+        }
+        Metrics.gauge("musicbot_shard_queue_depth", "Events waiting for their shard's thread", "shard",
+            shardDispatcher::getQueueDepths);
+        OutboundScheduler outbound = DiscordUtil.getOutboundScheduler();
+        Metrics.gauge("musicbot_outbound_queue_depth", "REST requests waiting for a rate limit token",
+            outbound::getQueueDepth);
+        Metrics.gauge("musicbot_outbound_latency_avg_ms", "Average time from submitting a REST request until done",
+            "route", () -> routeStats(OutboundScheduler.RouteStats::getAverageLatencyMillis));
+        Metrics.counter("musicbot_outbound_throttled_total", "REST requests held back to stay within the rate limit",
+            "route", () -> routeStats(OutboundScheduler.RouteStats::getThrottledCount));
+        Metrics.counter("musicbot_outbound_rate_limited_total", "Rate limit responses received", "route",
+            () -> routeStats(OutboundScheduler.RouteStats::getRateLimitedCount));
+        Metrics.gauge("musicbot_deletions_pending", "Messages waiting for their scheduled deletion",
+            () -> DiscordUtil.getDeletionScheduler().getPendingCount());
+        Metrics.gauge("musicbot_deletions_lag_ms", "How late the last deletion batch ran",
+            () -> DiscordUtil.getDeletionScheduler().getLagMillis());
+    }
+
+    private Map<String, Number> routeStats(Function<OutboundScheduler.RouteStats, Number> value) {
+        Map<String, Number> values = new HashMap<>();
+        DiscordUtil.getOutboundScheduler().getRouteStats()
+            .forEach((route, stats) -> values.put(route.name().toLowerCase(), value.apply(stats)));
+        return values;
+    }
+
+    private void startMetricsServer() {
+        String host = properties.getProperty("metrics-host", "127.0.0.1");
+        int port = getInteger(properties, "metrics-port", 9404);
+        try {
+            metricsServer = new MetricsServer(host, port);
+            metricsServer.start();
+        } catch (IOException e) {
+            log.warn("Could not start metrics server on {}:{}: {}", host, port, e.toString());
+        }
     }
 
     private ClientBuilder newClientBuilder() {
         ClientBuilder builder = new ClientBuilder()
             .withToken(properties.getProperty("token"))
             .withPingTimeout(getInteger(properties, "max-missed-pings", 50))
-            .setMaxReconnectAttempts(getInteger(properties, "max-reconnect-attempts", 10));
+            .setMaxReconnectAttempts(getInteger(properties, "max-reconnect-attempts", 10))
+            .withShards(shardDispatcher.getShardCount());
         return builder;
     }
 
@@ -45,20 +141,145 @@ public class Instance {
         } else {
             client = newClientBuilder().login();
             log.debug("Registering Discord event listeners");
-            client.getDispatcher().registerListener(this);
-            client.getDispatcher().registerListener(new StreamService());
-            client.getDispatcher().registerListener(new ProfileListener());
+            CommandBus commandBus = new CommandBus(commandScheduler, admissionControl);
+            commandBus.register(command -> terminate(), 0, 0, "!exit");
+            commandBus.registerBlocking(this::restartShardCommand, 0, 1, "!restartshard");
+            streamService = new StreamService(properties);
+            Runtime.getRuntime().addShutdownHook(new Thread(streamService::shutdown, "stream-service-shutdown"));
+            streamService.registerCommands(commandBus);
+            new ProfileListener().registerCommands(commandBus);
+            shardDispatcher.registerListener(this);
+            shardDispatcher.registerListener(streamService);
+            shardDispatcher.registerListener(commandBus);
+            shardDispatcher.setMessageFilter(CommandBus::isCandidate);
+            client.getDispatcher().registerListener(shardDispatcher);
+            if (getBoolean(properties, "cluster-enabled", false)) {
+                joinCluster();
+            }
+        }
+    }
+
+    private void joinCluster() {
+        try {
+            cluster = Cluster.fromProperties(properties);
+        } catch (IOException e) {
+            log.warn("Could not set up cluster membership, serving every guild: {}", e.toString());
+            return;
+        }
+        shardDispatcher.setOwnership(cluster::owns);
+        cluster.addListener(ring -> leaveDisownedGuilds());
+        cluster.start();
+    }
+
+    /**
+     * Disconnect from voice in guilds now owned by another node, so that node can join when it gets a command.
+     */
+    private void leaveDisownedGuilds() {
+        for (IVoiceChannel voiceChannel : client.getConnectedVoiceChannels()) {
+            String guildId = voiceChannel.getGuild().getID();
+            if (!cluster.owns(guildId)) {
+                log.info("Guild {} moved to node {}, leaving voice", guildId, cluster.getRing().ownerOf(guildId));
+                voiceChannel.leave();
+            }
+        }
+    }
+
+    private void restartShardCommand(Command command) {
+        IChannel channel = command.getChannel();
+        if (!isApplicationOwner(command.getMessage().getAuthor())) {
+            sendMessage(channel, "Only the owner of the bot can restart shards");
+            return;
+        }
+        String arg = command.getArg(0);
+        int count = client.getShards().size();
+        if (arg.isEmpty()) {
+            sendMessage(channel, "Restarting " + count + " shard" + (count == 1 ? "" : "s") + ", one at a time");
+            for (int i = 0; i < count; i++) {
+                if (!restartShard(i)) {
+                    sendMessage(channel, "Shard " + i + " did not come back, stopping the restart");
+                    return;
+                }
+            }
+            sendMessage(channel, "All shards restarted");
+            return;
+        }
+        int index;
+        try {
+            index = Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            index = -1;
+        }
+        if (index < 0 || index >= count) {
+            sendMessage(channel, "Shard must be between 0 and " + (count - 1));
+        } else if (restartShard(index)) {
+            sendMessage(channel, "Shard " + index + " restarted");
+        } else {
+            sendMessage(channel, "Shard " + index + " did not come back within the restart timeout");
+        }
+    }
+
+    /**
+     * @return whether the user owns the bot's application, false if the owner could not be looked up
+     */
+    private boolean isApplicationOwner(IUser user) {
+        String ownerId = applicationOwnerId;
+        if (ownerId == null) {
+            try {
+                ownerId = client.getApplicationOwner().getID();
+            } catch (DiscordException e) {
+                log.warn("Could not look up the application owner: {}", e.toString());
+                return false;
+            }
+            applicationOwnerId = ownerId;
         }
+        return ownerId.equals(user.getID());
+    }
+
+    /**
+     * Log a single shard out and back in, leaving the others connected, and wait for it to be ready again.
+     *
+     * @return true if the shard was ready before the shard-restart-timeout-seconds property ran out
+     */
+    public boolean restartShard(int index) {
+        IShard shard = client.getShards().get(index);
+        long timeout = TimeUnit.SECONDS.toNanos(getLong(properties, "shard-restart-timeout-seconds", 60));
+        log.info("Restarting shard {} of {}", index, client.getShards().size());
+        shard.logout();
+        shard.login();
+        long deadline = System.nanoTime() + timeout;
+        try {
+            while (!shard.isReady()) {
+                if (System.nanoTime() - deadline > 0) {
+                    log.warn("Shard {} not ready after restart", index);
+                    return false;
+                }
+                Thread.sleep(500);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        log.info("Shard {} is ready", index);
+        return true;
     }
 
     @EventSubscriber
     public void onReady(ReadyEvent event) {
         log.info("*** Discord bot armed ***");
+        restoreQueues(event.getClient());
     }
 
     @EventSubscriber
     public void onReconnectSuccess(ReconnectSuccessEvent event) {
         log.info("*** Discord bot reconnect succeeded ***");
+        restoreQueues(event.getClient());
+    }
+
+    private void restoreQueues(IDiscordClient client) {
+        Cluster current = cluster;
+        if (streamService != null) {
+            streamService.restoreQueues(client, current != null ? current::owns : guildId -> true);
+        }
     }
 
     @EventSubscriber
@@ -70,14 +291,6 @@ public class Instance {
     public void onDisconnect(DisconnectedEvent event) {
         log.warn("*** Discord bot disconnected due to {} ***", event.getReason());
     }
-    @EventSubscriber
-    public void onMessage(MessageReceivedEvent e) {
-        IMessage message = e.getMessage();
-        String content = message.getContent().toLowerCase();
-        if (content.equals("!exit")) {
-            terminate();
-        }
-    }
 
     public void terminate() {
         try {
@@ -85,6 +298,17 @@ public class Instance {
         } catch (DiscordException e) {
             log.warn("Logout failed", e);
         }
+        commandScheduler.shutdown();
+        shardDispatcher.shutdown();
+        if (cluster != null) {
+            cluster.stop();
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        if (streamService != null) {
+            streamService.shutdown();
+        }
         exitLatch.countDown();
     }
 
@@ -92,6 +316,14 @@ public class Instance {
         return properties;
     }
 
+    public CommandScheduler getCommandScheduler() {
+        return commandScheduler;
+    }
+
+    public ShardDispatcher getShardDispatcher() {
+        return shardDispatcher;
+    }
+
     public CountDownLatch getExitLatch() {
         return exitLatch;
     }
@@ -0,0 +1,137 @@
+package cluster;
+
+import metrics.Counter;
+import metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * This process's view of the cluster: which guilds it owns, given the live members reported by a {@link Membership}
+ * backend. Membership is renewed and re-read on a timer, and listeners are told whenever the ring changes so they can
+ * let go of guilds that moved elsewhere.
+ */
+public class Cluster {
+
+    private static final Logger log = LoggerFactory.getLogger(Cluster.class);
+    private static final Counter REBALANCES = Metrics.counter("musicbot_cluster_rebalances_total",
+        "Times the set of cluster members changed");
+
+    private final String nodeId;
+    private final Membership membership;
+    private final ScheduledExecutorService timer;
+    private final CopyOnWriteArrayList<Consumer<HashRing>> listeners = new CopyOnWriteArrayList<>();
+    private volatile HashRing ring;
+
+    public Cluster(String nodeId, Membership membership) {
+        this.nodeId = nodeId;
+        this.membership = membership;
+        this.ring = new HashRing(Collections.singleton(nodeId));
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-membership");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Metrics.gauge("musicbot_cluster_members", "Nodes in this process's view of the cluster",
+            () -> ring.getNodes().size());
+    }
+
+    /**
+     * Create the cluster described by the cluster-* properties. The cluster-membership property is "file" or the
+     * name of a {@link Membership} class with a constructor taking the properties.
+     */
+    public static Cluster fromProperties(Properties properties) throws IOException {
+        String nodeId = properties.getProperty("cluster-node-id", defaultNodeId());
+        String backend = properties.getProperty("cluster-membership", "file");
+        Membership membership;
+        if ("file".equals(backend)) {
+            membership = new FileLeaseMembership(properties);
+        } else {
+            try {
+                membership = (Membership) Class.forName(backend).getConstructor(Properties.class)
+                    .newInstance(properties);
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalArgumentException("Unknown cluster membership backend: " + backend, e);
+            }
+        }
+        return new Cluster(nodeId, membership);
+    }
+
+    /**
+     * Join the cluster and keep the membership fresh, renewing at a third of the lease period.
+     */
+    public void start() {
+        refresh();
+        long period = Math.max(1, membership.getLeaseMillis() / 3);
+        timer.scheduleWithFixedDelay(this::refresh, period, period, TimeUnit.MILLISECONDS);
+        log.info("Node {} joined the cluster of {}", nodeId, ring.getNodes());
+    }
+
+    public void stop() {
+        timer.shutdownNow();
+        try {
+            membership.leave(nodeId);
+        } catch (IOException e) {
+            log.warn("Could not leave the cluster: {}", e.toString());
+        }
+    }
+
+    /**
+     * @param key a guild ID, or a private channel ID for direct messages
+     */
+    public boolean owns(String key) {
+        return nodeId.equals(ring.ownerOf(key));
+    }
+
+    /**
+     * Register a listener called with the new ring on the membership thread after each change.
+     */
+    public void addListener(Consumer<HashRing> listener) {
+        listeners.add(listener);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+
+    private void refresh() {
+        try {
+            membership.join(nodeId);
+            Set<String> members = new TreeSet<>(membership.getMembers());
+            // a running node always counts itself, even before its own lease is visible
+            members.add(nodeId);
+            if (!members.equals(ring.getNodes())) {
+                log.info("Cluster members changed from {} to {}", ring.getNodes(), members);
+                HashRing updated = new HashRing(members);
+                ring = updated;
+                REBALANCES.inc();
+                for (Consumer<HashRing> listener : listeners) {
+                    listener.accept(updated);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // keep the last known ring, the next refresh will try again
+            log.warn("Could not refresh cluster membership: {}", e.toString());
+        }
+    }
+
+    private static String defaultNodeId() {
+        // "pid@host" on common JVMs, made safe for file names
+        return ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
@@ -0,0 +1,98 @@
+package cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import static util.PropertiesUtil.getLong;
+
+/**
+ * Membership kept as one lease file per node in a shared directory, for running several processes on one host. A
+ * lease holds its expiry time and is rewritten on every renewal; nodes whose lease ran out are no longer members and
+ * their files are removed once they are a full lease period out of date.
+ */
+public class FileLeaseMembership implements Membership {
+
+    private static final Logger log = LoggerFactory.getLogger(FileLeaseMembership.class);
+    private static final String SUFFIX = ".lease";
+
+    private final Path directory;
+    private final long leaseMillis;
+
+    public FileLeaseMembership(Properties properties) throws IOException {
+        this(Paths.get(properties.getProperty("cluster-dir", "cluster")),
+            getLong(properties, "cluster-lease-seconds", 15) * 1000);
+    }
+
+    public FileLeaseMembership(Path directory, long leaseMillis) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.leaseMillis = leaseMillis;
+    }
+
+    @Override
+    public void join(String nodeId) throws IOException {
+        Path lease = lease(nodeId);
+        Path temp = Files.createTempFile(directory, nodeId, ".tmp");
+        try {
+            long expiry = System.currentTimeMillis() + leaseMillis;
+            Files.write(temp, String.valueOf(expiry).getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, lease, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public Set<String> getMembers() throws IOException {
+        Set<String> members = new HashSet<>();
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> leases = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path lease : leases) {
+                String name = lease.getFileName().toString();
+                String nodeId = name.substring(0, name.length() - SUFFIX.length());
+                long expiry = readExpiry(lease);
+                if (expiry > now) {
+                    members.add(nodeId);
+                } else if (expiry >= 0 && expiry + leaseMillis < now) {
+                    log.info("Removing expired lease of {}", nodeId);
+                    Files.deleteIfExists(lease);
+                }
+            }
+        }
+        return members;
+    }
+
+    @Override
+    public void leave(String nodeId) throws IOException {
+        Files.deleteIfExists(lease(nodeId));
+    }
+
+    @Override
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    private Path lease(String nodeId) {
+        return directory.resolve(nodeId + SUFFIX);
+    }
+
+    private long readExpiry(Path lease) {
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(lease), StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            // removed meanwhile or unreadable, leave it to the next check
+            log.debug("Could not read lease {}: {}", lease, e.toString());
+            return -1;
+        }
+    }
+}
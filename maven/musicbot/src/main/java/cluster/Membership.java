@@ -0,0 +1,31 @@
+package cluster;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Backend that tells cluster nodes about each other. Implementations need a public constructor taking the bot's
+ * {@link java.util.Properties} to be selected with the cluster-membership property.
+ */
+public interface Membership {
+
+    /**
+     * Announce this node, or renew the announcement. Called periodically, at least once per lease period.
+     */
+    void join(String nodeId) throws IOException;
+
+    /**
+     * @return IDs of every live node, which may or may not include this one
+     */
+    Set<String> getMembers() throws IOException;
+
+    /**
+     * Withdraw this node so its guilds move to the others right away instead of when its lease runs out.
+     */
+    void leave(String nodeId) throws IOException;
+
+    /**
+     * @return how often {@link #join(String)} must be called for this node to stay a member, in milliseconds
+     */
+    long getLeaseMillis();
+}
@@ -0,0 +1,48 @@
+package metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic count, optionally split by label values.
+ */
+public class Counter extends Metrics.Metric {
+
+    private final String[] labelNames;
+    private final ConcurrentMap<List<String>, LongAdder> children = new ConcurrentHashMap<>();
+
+    Counter(String name, String help, String... labelNames) {
+        super(name, help, "counter");
+        this.labelNames = labelNames;
+    }
+
+    public void inc() {
+        labels().increment();
+    }
+
+    public void inc(long amount) {
+        labels().add(amount);
+    }
+
+    /**
+     * @param values one value per label name, in registration order
+     */
+    public LongAdder labels(String... values) {
+        if (values.length != labelNames.length) {
+            throw new IllegalArgumentException(name + " expects " + labelNames.length + " label values");
+        }
+        return children.computeIfAbsent(Arrays.asList(values), key -> new LongAdder());
+    }
+
+    @Override
+    void write(StringBuilder out) {
+        children.forEach((values, count) -> {
+            out.append(name);
+            Metrics.appendLabels(out, labelNames, values, null, null);
+            out.append(' ').append(count.sum()).append('\n');
+        });
+    }
+}
@@ -0,0 +1,92 @@
+package metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of observed values over fixed buckets, optionally split by label values.
+ */
+public class Histogram extends Metrics.Metric {
+
+    static final double[] LATENCY_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    private final double[] buckets;
+    private final String[] labelNames;
+    private final ConcurrentMap<List<String>, Child> children = new ConcurrentHashMap<>();
+
+    Histogram(String name, String help, double[] buckets, String... labelNames) {
+        super(name, help, "histogram");
+        this.buckets = buckets.clone();
+        this.labelNames = labelNames;
+        Arrays.sort(this.buckets);
+    }
+
+    public void observe(double value) {
+        labels().observe(value);
+    }
+
+    /**
+     * Observe the time since a {@link System#nanoTime()} reading, in seconds.
+     */
+    public void observeSince(long startNanos) {
+        labels().observeSince(startNanos);
+    }
+
+    /**
+     * @param values one value per label name, in registration order
+     */
+    public Child labels(String... values) {
+        if (values.length != labelNames.length) {
+            throw new IllegalArgumentException(name + " expects " + labelNames.length + " label values");
+        }
+        return children.computeIfAbsent(Arrays.asList(values), key -> new Child());
+    }
+
+    @Override
+    void write(StringBuilder out) {
+        children.forEach((values, child) -> {
+            long cumulative = 0;
+            for (int i = 0; i <= buckets.length; i++) {
+                cumulative += child.counts[i].sum();
+                out.append(name).append("_bucket");
+                String bound = i < buckets.length ? Metrics.format(buckets[i]) : "+Inf";
+                Metrics.appendLabels(out, labelNames, values, "le", bound);
+                out.append(' ').append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum");
+            Metrics.appendLabels(out, labelNames, values, null, null);
+            out.append(' ').append(Metrics.format(child.sum.sum())).append('\n');
+            out.append(name).append("_count");
+            Metrics.appendLabels(out, labelNames, values, null, null);
+            out.append(' ').append(cumulative).append('\n');
+        });
+    }
+
+    public class Child {
+
+        // one count per bucket plus the +Inf bucket, summed up when written
+        private final LongAdder[] counts = new LongAdder[buckets.length + 1];
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Child() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        public void observe(double value) {
+            int index = Arrays.binarySearch(buckets, value);
+            counts[index >= 0 ? index : -index - 1].increment();
+            sum.add(value);
+        }
+
+        public void observeSince(long startNanos) {
+            observe((System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Process wide registry of counters, histograms and gauges, written out in the Prometheus text format. Counters and
+ * histograms are usually kept in static fields next to the code they measure, while gauges, and counters that a
+ * component keeps itself, read the state of components when a scrape happens.
+ */
+public class Metrics {
+
+    private static final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    public static Counter counter(String name, String help, String... labelNames) {
+        return register(new Counter(name, help, labelNames));
+    }
+
+    /**
+     * Histogram with buckets suited to latencies in seconds.
+     */
+    public static Histogram histogram(String name, String help, String... labelNames) {
+        return register(new Histogram(name, help, Histogram.LATENCY_BUCKETS, labelNames));
+    }
+
+    public static Histogram histogram(String name, String help, double[] buckets, String... labelNames) {
+        return register(new Histogram(name, help, buckets, labelNames));
+    }
+
+    /**
+     * Gauge read from the supplier on every scrape.
+     */
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        register(new Sampled(name, help, "gauge", null, () -> Collections.singletonMap("", value.getAsDouble())));
+    }
+
+    /**
+     * Gauge with one label, read from the supplier on every scrape as a map of label value to value.
+     */
+    public static void gauge(String name, String help, String labelName,
+                             Supplier<? extends Map<String, ? extends Number>> values) {
+        register(new Sampled(name, help, "gauge", labelName, values));
+    }
+
+    /**
+     * Counter kept by a component, read from the supplier on every scrape. The count must only grow.
+     */
+    public static void counter(String name, String help, LongSupplier value) {
+        register(new Sampled(name, help, "counter", null, () -> Collections.singletonMap("", value.getAsLong())));
+    }
+
+    /**
+     * Counter with one label kept by a component, read from the supplier on every scrape as a map of label value to
+     * count. The counts must only grow.
+     */
+    public static void counter(String name, String help, String labelName,
+                               Supplier<? extends Map<String, ? extends Number>> values) {
+        register(new Sampled(name, help, "counter", labelName, values));
+    }
+
+    public static void remove(String name) {
+        metrics.remove(name);
+    }
+
+    /**
+     * @return every registered metric in the Prometheus text exposition format
+     */
+    public static String scrape() {
+        List<Metric> sorted = new ArrayList<>(metrics.values());
+        sorted.sort((a, b) -> a.name.compareTo(b.name));
+        StringBuilder out = new StringBuilder(4096);
+        for (Metric metric : sorted) {
+            out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+            out.append("# TYPE ").append(metric.name).append(' ').append(metric.type).append('\n');
+            metric.write(out);
+        }
+        return out.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Metric> T register(T metric) {
+        Metric previous = metrics.putIfAbsent(metric.name, metric);
+        if (previous == null) {
+            return metric;
+        }
+        if (previous.getClass() != metric.getClass() || previous instanceof Sampled) {
+            // sampled metrics are replaced so a restarted component reports its own state
+            metrics.put(metric.name, metric);
+            return metric;
+        }
+        return (T) previous;
+    }
+
+    static void appendLabels(StringBuilder out, String[] names, List<String> values, String extraName,
+                             String extraValue) {
+        if (names.length == 0 && extraName == null) {
+            return;
+        }
+        out.append('{');
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            appendLabel(out, names[i], values.get(i));
+        }
+        if (extraName != null) {
+            if (names.length > 0) {
+                out.append(',');
+            }
+            appendLabel(out, extraName, extraValue);
+        }
+        out.append('}');
+    }
+
+    private static void appendLabel(StringBuilder out, String name, String value) {
+        out.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    static String format(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    abstract static class Metric {
+
+        final String name;
+        final String help;
+        final String type;
+
+        Metric(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        abstract void write(StringBuilder out);
+    }
+
+    /**
+     * Gauge or counter whose values are read from a component when scraped.
+     */
+    private static class Sampled extends Metric {
+
+        private final String labelName;
+        private final Supplier<? extends Map<String, ? extends Number>> values;
+
+        private Sampled(String name, String help, String type, String labelName,
+                        Supplier<? extends Map<String, ? extends Number>> values) {
+            super(name, help, type);
+            this.labelName = labelName;
+            this.values = values;
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            Map<String, ? extends Number> current;
+            try {
+                current = values.get();
+            } catch (RuntimeException e) {
+                // a component that is shutting down should not break the whole scrape
+                return;
+            }
+            for (Map.Entry<String, ? extends Number> entry : current.entrySet()) {
+                out.append(name);
+                appendLabels(out, new String[0], Collections.emptyList(), labelName, entry.getKey());
+                out.append(' ').append(format(entry.getValue().doubleValue())).append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether a command may run before it is scheduled. Every user and every guild has a token bucket that
+ * refills at a steady rate; a command takes its cost from both, so one user can't flood a guild and a crowd can't
+ * flood the bot. Commands that resolve tracks with external processes are also limited by a global count of those
+ * running at once. A slot of that count is given back when its command finishes, or taken back once the command held
+ * it for longer than the resolving timeout, so commands that hang can't shut everyone else out.
+ */
+public class AdmissionControl {
+
+    private static final Logger log = LoggerFactory.getLogger(AdmissionControl.class);
+
+    /**
+     * Key under which commands turned away by the global cap are counted.
+     */
+    public static final String RESOLVING_KEY = "resolving";
+
+    private static final int MAX_IDLE_BUCKETS = 10000;
+    // buckets looked at for eviction per bucket created once the limit is reached
+    private static final int EVICTION_STEP = 8;
+    private static final int TOP_REJECTED = 20;
+
+    private final int userCapacity;
+    private final double userRefillPerNano;
+    private final int guildCapacity;
+    private final double guildRefillPerNano;
+    private final int maxResolving;
+    private final long resolvingTimeoutNanos;
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Map<Result, LongAdder> rejected = new EnumMap<>(Result.class);
+    // guarded by itself
+    private final TopCounts topRejected = new TopCounts(TOP_REJECTED);
+    // owner of each taken slot to when it was taken
+    private final ConcurrentMap<Object, Long> resolving = new ConcurrentHashMap<>();
+    private final LongAdder expired = new LongAdder();
+    // guarded by buckets
+    private Iterator<Map.Entry<String, Bucket>> sweep = Collections.emptyIterator();
+
+    public enum Result {
+        ADMITTED, USER_LIMITED, GUILD_LIMITED, BUSY
+    }
+
+    /**
+     * @param userCapacity         tokens a user can spend at once
+     * @param userRefillPerMinute  tokens a user gets back per minute
+     * @param guildCapacity        tokens a guild can spend at once
+     * @param guildRefillPerMinute tokens a guild gets back per minute
+     * @param maxResolving         resolving commands allowed to run at once across all guilds
+     * @param resolvingTimeout     how long a resolving command may hold its slot, in seconds
+     */
+    public AdmissionControl(int userCapacity, int userRefillPerMinute, int guildCapacity, int guildRefillPerMinute,
+                            int maxResolving, long resolvingTimeout) {
+        this.userCapacity = userCapacity;
+        this.userRefillPerNano = userRefillPerMinute / 60e9;
+        this.guildCapacity = guildCapacity;
+        this.guildRefillPerNano = guildRefillPerMinute / 60e9;
+        this.maxResolving = maxResolving;
+        this.resolvingTimeoutNanos = TimeUnit.SECONDS.toNanos(resolvingTimeout);
+        for (Result result : Result.values()) {
+            if (result != Result.ADMITTED) {
+                rejected.put(result, new LongAdder());
+            }
+        }
+    }
+
+    /**
+     * Take the cost of a command from its user's and guild's buckets, and for resolving commands a slot of the global
+     * cap, which must be given back with {@link #release(Object)} once the command finished. Nothing is taken unless
+     * the command is admitted.
+     *
+     * @param guildId        the guild, or null for private messages, which are only limited per user
+     * @param resolvingOwner for commands that start external processes to resolve tracks, what their slot is held
+     *                       by; null for other commands
+     */
+    public Result tryAcquire(String userId, String guildId, int cost, Object resolvingOwner) {
+        long now = System.nanoTime();
+        String userKey = "user:" + userId;
+        Bucket user = bucket(userKey, userCapacity, userRefillPerNano, now);
+        if (!user.tryTake(cost, now)) {
+            reject(Result.USER_LIMITED, userKey);
+            return Result.USER_LIMITED;
+        }
+        String guildKey = guildId == null ? null : "guild:" + guildId;
+        Bucket guild = guildKey == null ? null : bucket(guildKey, guildCapacity, guildRefillPerNano, now);
+        if (guild != null && !guild.tryTake(cost, now)) {
+            user.give(cost);
+            reject(Result.GUILD_LIMITED, guildKey);
+            return Result.GUILD_LIMITED;
+        }
+        if (resolvingOwner != null && !tryEnter(resolvingOwner, now)) {
+            user.give(cost);
+            if (guild != null) {
+                guild.give(cost);
+            }
+            reject(Result.BUSY, RESOLVING_KEY);
+            return Result.BUSY;
+        }
+        return Result.ADMITTED;
+    }
+
+    /**
+     * Give back the global slot of a finished resolving command, unless it was already taken back.
+     */
+    public void release(Object resolvingOwner) {
+        resolving.remove(resolvingOwner);
+    }
+
+    public int getResolving() {
+        return resolving.size();
+    }
+
+    /**
+     * @return slots taken back from commands that held them past the resolving timeout
+     */
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    /**
+     * @return commands turned away since startup, by the result they were turned away with
+     */
+    public Map<String, Long> getRejectedCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        rejected.forEach((result, count) -> counts.put(result.name().toLowerCase(), count.sum()));
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * The users and guilds turned away most often, by "user:ID", "guild:ID" or {@value #RESOLVING_KEY}. Only a few
+     * keys are tracked, so counts are estimates that may be too high for keys that replaced others; they are exact
+     * while no more than that many keys were turned away.
+     */
+    public Map<String, Long> getTopRejectedCounts() {
+        synchronized (topRejected) {
+            return topRejected.snapshot();
+        }
+    }
+
+    private synchronized boolean tryEnter(Object owner, long now) {
+        if (resolving.size() >= maxResolving) {
+            // only looked at when the cap is reached, there are never more than a handful of slots
+            Iterator<Map.Entry<Object, Long>> slots = resolving.entrySet().iterator();
+            while (slots.hasNext()) {
+                if (now - slots.next().getValue() >= resolvingTimeoutNanos) {
+                    slots.remove();
+                    expired.increment();
+                    log.warn("Took back a resolving slot held for longer than {} seconds",
+                        TimeUnit.NANOSECONDS.toSeconds(resolvingTimeoutNanos));
+                }
+            }
+            if (resolving.size() >= maxResolving) {
+                return false;
+            }
+        }
+        resolving.put(owner, now);
+        return true;
+    }
+
+    private void reject(Result result, String key) {
+        rejected.get(result).increment();
+        synchronized (topRejected) {
+            topRejected.increment(key);
+        }
+    }
+
+    private Bucket bucket(String key, int capacity, double refillPerNano, long now) {
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= MAX_IDLE_BUCKETS) {
+                evictFull(now);
+            }
+            bucket = buckets.computeIfAbsent(key, k -> new Bucket(capacity, refillPerNano, now));
+        }
+        return bucket;
+    }
+
+    /**
+     * Look at the next few buckets and drop those that refilled. A full bucket behaves exactly like a new one, so
+     * dropping it loses nothing, and going round a few at a time keeps a new key from paying for a scan of them all.
+     */
+    private void evictFull(long now) {
+        synchronized (buckets) {
+            for (int i = 0; i < EVICTION_STEP; i++) {
+                if (!sweep.hasNext()) {
+                    sweep = buckets.entrySet().iterator();
+                    if (!sweep.hasNext()) {
+                        return;
+                    }
+                }
+                Map.Entry<String, Bucket> entry = sweep.next();
+                if (entry.getValue().isFull(now)) {
+                    buckets.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts of the most frequent keys in bounded space: when every slot is taken, a new key replaces the smallest
+     * count and starts from it, so a key seen often enough always makes it into the table.
+     */
+    private static class TopCounts {
+
+        private final int capacity;
+        private final Map<String, Long> counts = new HashMap<>();
+
+        private TopCounts(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private void increment(String key) {
+            Long count = counts.get(key);
+            if (count != null || counts.size() < capacity) {
+                counts.put(key, count == null ? 1 : count + 1);
+                return;
+            }
+            String smallest = null;
+            long min = Long.MAX_VALUE;
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                if (entry.getValue() < min) {
+                    smallest = entry.getKey();
+                    min = entry.getValue();
+                }
+            }
+            counts.remove(smallest);
+            counts.put(key, min + 1);
+        }
+
+        private Map<String, Long> snapshot() {
+            return Collections.unmodifiableMap(new HashMap<>(counts));
+        }
+    }
+
+    private static class Bucket {
+
+        private final int capacity;
+        private final double refillPerNano;
+        private double tokens;
+        private long refilled;
+
+        private Bucket(int capacity, double refillPerNano, long now) {
+            this.capacity = capacity;
+            this.refillPerNano = refillPerNano;
+            this.tokens = capacity;
+            this.refilled = now;
+        }
+
+        private synchronized boolean tryTake(int cost, long now) {
+            refill(now);
+            if (tokens < cost) {
+                return false;
+            }
+            tokens -= cost;
+            return true;
+        }
+
+        private synchronized void give(int cost) {
+            tokens = Math.min(capacity, tokens + cost);
+        }
+
+        private synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= capacity;
+        }
+
+        private void refill(long now) {
+            if (now > refilled) {
+                tokens = Math.min(capacity, tokens + (now - refilled) * refillPerNano);
+                refilled = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package util;
+
+import sx.blah.discord.handle.impl.events.MessageReceivedEvent;
+import sx.blah.discord.handle.obj.IChannel;
+import sx.blah.discord.handle.obj.IMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A chat command tokenized once by the {@link CommandBus}, holding its name and whitespace separated arguments.
+ */
+public class Command {
+
+    private final MessageReceivedEvent event;
+    private final String name;
+    private final List<String> args;
+    private final String remainder;
+    private final long receivedNanos;
+
+    Command(MessageReceivedEvent event, String name, List<String> args, String remainder) {
+        this.event = event;
+        this.name = name;
+        this.args = args;
+        this.remainder = remainder;
+        this.receivedNanos = System.nanoTime();
+    }
+
+    static Command parse(MessageReceivedEvent event, String content, int nameEnd) {
+        String name = content.substring(0, nameEnd).toLowerCase();
+        int length = content.length();
+        int start = nameEnd;
+        while (start < length && Character.isWhitespace(content.charAt(start))) {
+            start++;
+        }
+        if (start == length) {
+            return new Command(event, name, Collections.emptyList(), "");
+        }
+        List<String> args = new ArrayList<>();
+        int i = start;
+        while (i < length) {
+            int tokenStart = i;
+            while (i < length && !Character.isWhitespace(content.charAt(i))) {
+                i++;
+            }
+            args.add(content.substring(tokenStart, i));
+            while (i < length && Character.isWhitespace(content.charAt(i))) {
+                i++;
+            }
+        }
+        return new Command(event, name, Collections.unmodifiableList(args), content.substring(start).trim());
+    }
+
+    /**
+     * Count the arguments {@link #parse} would split off, without allocating, stopping once the count exceeds the
+     * limit.
+     */
+    static int countArgs(String content, int nameEnd, int limit) {
+        int length = content.length();
+        int count = 0;
+        boolean inToken = false;
+        for (int i = nameEnd; i < length && count <= limit; i++) {
+            boolean whitespace = Character.isWhitespace(content.charAt(i));
+            if (!whitespace && !inToken) {
+                count++;
+            }
+            inToken = !whitespace;
+        }
+        return count;
+    }
+
+    public MessageReceivedEvent getEvent() {
+        return event;
+    }
+
+    public IMessage getMessage() {
+        return event.getMessage();
+    }
+
+    public IChannel getChannel() {
+        return event.getMessage().getChannel();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getArgs() {
+        return args;
+    }
+
+    public String getArg(int index) {
+        return index < args.size() ? args.get(index) : "";
+    }
+
+    /**
+     * @return the raw text following the command name, trimmed
+     */
+    public String getRemainder() {
+        return remainder;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} reading taken when the command was parsed, before it waited for a worker
+     */
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+}
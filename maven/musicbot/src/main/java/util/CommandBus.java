@@ -0,0 +1,210 @@
+package util;
+
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sx.blah.discord.api.events.EventSubscriber;
+import sx.blah.discord.handle.impl.events.MessageReceivedEvent;
+import sx.blah.discord.handle.obj.IChannel;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Single entry point for chat commands. Each message is checked once against a trie of registered command names and
+ * only tokenized if it matches, so regular chat is discarded without allocating. Matched commands pass
+ * {@link AdmissionControl}, if any, and are handed to the {@link CommandScheduler}, ordered per guild.
+ */
+public class CommandBus {
+
+    private static final Logger log = LoggerFactory.getLogger(CommandBus.class);
+    private static final char PREFIX = '!';
+    private static final Counter COMMANDS = Metrics.counter("musicbot_commands_total",
+        "Commands received, by command and result", "command", "result");
+    private static final Histogram COMMAND_SECONDS = Metrics.histogram("musicbot_command_duration_seconds",
+        "Time from receiving a command until it finished, including time queued", "command");
+    // admission cost of commands, in tokens
+    private static final int COST = 1;
+    private static final int BLOCKING_COST = 3;
+    private static final int RESOLVING_COST = 10;
+
+    private final Node root = new Node();
+    private final CommandScheduler scheduler;
+    private final AdmissionControl admission;
+
+    public CommandBus(CommandScheduler scheduler) {
+        this(scheduler, null);
+    }
+
+    /**
+     * @param admission limits applied to commands before they are scheduled, or null to schedule every command
+     */
+    public CommandBus(CommandScheduler scheduler, AdmissionControl admission) {
+        this.scheduler = scheduler;
+        this.admission = admission;
+    }
+
+    /**
+     * Register a handler under one or more names, including the prefix (i.e. "!q").
+     *
+     * @param handler the handler to run when a message matches
+     * @param minArgs minimum number of arguments, messages with fewer are ignored
+     * @param maxArgs maximum number of arguments, messages with more are ignored
+     * @param names   command names, matched case-insensitively
+     */
+    public void register(CommandHandler handler, int minArgs, int maxArgs, String... names) {
+        register(handler, minArgs, maxArgs, false, false, names);
+    }
+
+    /**
+     * Register a handler that blocks on I/O or external processes, run on the scheduler's blocking pool.
+     *
+     * @see #register(CommandHandler, int, int, String...)
+     */
+    public void registerBlocking(CommandHandler handler, int minArgs, int maxArgs, String... names) {
+        register(handler, minArgs, maxArgs, true, false, names);
+    }
+
+    /**
+     * Register a blocking handler that starts external processes to resolve tracks. These cost the most to admit and
+     * count against the global cap of resolving commands.
+     *
+     * @see #register(CommandHandler, int, int, String...)
+     */
+    public void registerResolving(CommandHandler handler, int minArgs, int maxArgs, String... names) {
+        register(handler, minArgs, maxArgs, true, true, names);
+    }
+
+    private void register(CommandHandler handler, int minArgs, int maxArgs, boolean blocking, boolean resolving,
+                          String... names) {
+        // aliases are reported under the first name
+        String metricName = names.length > 0 ? names[0].substring(1) : "";
+        for (String name : names) {
+            if (name.isEmpty() || name.charAt(0) != PREFIX) {
+                throw new IllegalArgumentException("Command must start with " + PREFIX + ": " + name);
+            }
+            Node node = root;
+            for (int i = 1; i < name.length(); i++) {
+                char c = Character.toLowerCase(name.charAt(i));
+                if (c >= Node.WIDTH) {
+                    throw new IllegalArgumentException("Command must be ASCII: " + name);
+                }
+                if (node.children[c] == null) {
+                    node.children[c] = new Node();
+                }
+                node = node.children[c];
+            }
+            if (node.registration != null) {
+                throw new IllegalArgumentException("Command already registered: " + name);
+            }
+            node.registration = new Registration(metricName, handler, minArgs, maxArgs, blocking, resolving);
+            log.debug("Registered command {}", name);
+        }
+    }
+
+    /**
+     * Whether the message could be a command, checked without any allocation so chat can be dropped early.
+     */
+    public static boolean isCandidate(String content) {
+        return content != null && !content.isEmpty() && content.charAt(0) == PREFIX;
+    }
+
+    @EventSubscriber
+    public void onMessage(MessageReceivedEvent event) {
+        String content = event.getMessage().getContent();
+        if (!isCandidate(content)) {
+            return;
+        }
+        int length = content.length();
+        Node node = root;
+        int i = 1;
+        for (; i < length; i++) {
+            char c = content.charAt(i);
+            if (Character.isWhitespace(c)) {
+                break;
+            }
+            c = Character.toLowerCase(c);
+            if (c >= Node.WIDTH || (node = node.children[c]) == null) {
+                return;
+            }
+        }
+        Registration registration = node.registration;
+        if (registration == null) {
+            return;
+        }
+        // malformed commands are dropped before they cost any tokens
+        int args = Command.countArgs(content, i, registration.maxArgs);
+        if (args < registration.minArgs || args > registration.maxArgs) {
+            return;
+        }
+        // before tokenizing, so a flood is turned away as cheaply as chat
+        if (admission != null && !admit(event, registration)) {
+            return;
+        }
+        Command command = Command.parse(event, content, i);
+        long received = System.nanoTime();
+        scheduler.submit(orderingKey(command), () -> registration.handler.handle(command), registration.blocking)
+            .whenComplete((ignored, error) -> {
+                if (registration.resolving && admission != null) {
+                    admission.release(event);
+                }
+                if (error instanceof RejectedExecutionException) {
+                    COMMANDS.labels(registration.name, "rejected").increment();
+                    return;
+                }
+                COMMAND_SECONDS.labels(registration.name).observeSince(received);
+                COMMANDS.labels(registration.name, error == null ? "ok" : "error").increment();
+            });
+    }
+
+    private boolean admit(MessageReceivedEvent event, Registration registration) {
+        IChannel channel = event.getMessage().getChannel();
+        String userId = event.getMessage().getAuthor().getID();
+        AdmissionControl.Result result = admission.tryAcquire(userId,
+            channel.isPrivate() ? null : channel.getGuild().getID(), registration.cost,
+            registration.resolving ? event : null);
+        if (result == AdmissionControl.Result.ADMITTED) {
+            return true;
+        }
+        // no reply, answering a flood would only add to it
+        log.debug("Dropping {} from {}: {}", registration.name, userId, result);
+        COMMANDS.labels(registration.name, "throttled").increment();
+        return false;
+    }
+
+    private static String orderingKey(Command command) {
+        IChannel channel = command.getChannel();
+        return channel.isPrivate() ? channel.getID() : channel.getGuild().getID();
+    }
+
+    private static class Node {
+
+        private static final int WIDTH = 128;
+
+        private final Node[] children = new Node[WIDTH];
+        private Registration registration;
+    }
+
+    private static class Registration {
+
+        private final String name;
+        private final CommandHandler handler;
+        private final int minArgs;
+        private final int maxArgs;
+        private final boolean blocking;
+        private final boolean resolving;
+        private final int cost;
+
+        private Registration(String name, CommandHandler handler, int minArgs, int maxArgs, boolean blocking,
+                             boolean resolving) {
+            this.name = name;
+            this.handler = handler;
+            this.minArgs = minArgs;
+            this.maxArgs = maxArgs;
+            this.blocking = blocking;
+            this.resolving = resolving;
+            this.cost = resolving ? RESOLVING_COST : blocking ? BLOCKING_COST : COST;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package util;
+
+@FunctionalInterface
+public interface CommandHandler {
+
+    void handle(Command command);
+}
@@ -0,0 +1,155 @@
+package util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs commands serially per key (usually a guild) on a bounded set of worker threads. Commands that block on
+ * external processes or I/O run on a separate pool so they can't starve the rest, while still keeping their
+ * guild's ordering.
+ */
+public class CommandScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(CommandScheduler.class);
+
+    private final ExecutorService workers;
+    private final ExecutorService blockingWorkers;
+    private final int queueLimit;
+    private final ConcurrentMap<String, SerialExecutor> executors = new ConcurrentHashMap<>();
+
+    public CommandScheduler(int workerThreads, int blockingThreads, int queueLimit) {
+        this.workers = Executors.newFixedThreadPool(workerThreads, namedThreadFactory("command-worker"));
+        this.blockingWorkers = Executors.newFixedThreadPool(blockingThreads, namedThreadFactory("command-blocking"));
+        this.queueLimit = queueLimit;
+    }
+
+    /**
+     * Queue a task to run after every task previously submitted under the same key.
+     *
+     * @param key      ordering key, tasks with different keys run concurrently
+     * @param task     the work to run
+     * @param blocking whether the task should run on the pool reserved for blocking work
+     * @return a future completed when the task finishes, or completed exceptionally if it was rejected
+     */
+    public CompletableFuture<Void> submit(String key, Runnable task, boolean blocking) {
+        SerialExecutor executor = executors.computeIfAbsent(key, SerialExecutor::new);
+        return executor.submit(task, blocking ? blockingWorkers : workers);
+    }
+
+    public int getQueueDepth(String key) {
+        SerialExecutor executor = executors.get(key);
+        return executor == null ? 0 : executor.depth();
+    }
+
+    public long getRejectedCount(String key) {
+        SerialExecutor executor = executors.get(key);
+        return executor == null ? 0 : executor.rejected.get();
+    }
+
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new HashMap<>();
+        executors.forEach((key, executor) -> depths.put(key, executor.depth()));
+        return Collections.unmodifiableMap(depths);
+    }
+
+    public Map<String, Long> getRejectedCounts() {
+        Map<String, Long> rejected = new HashMap<>();
+        executors.forEach((key, executor) -> rejected.put(key, executor.rejected.get()));
+        return Collections.unmodifiableMap(rejected);
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+        blockingWorkers.shutdown();
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private class SerialExecutor {
+
+        private final String key;
+        private final Queue<Task> tasks = new ArrayDeque<>();
+        private final AtomicLong rejected = new AtomicLong();
+        private boolean running;
+
+        private SerialExecutor(String key) {
+            this.key = key;
+        }
+
+        private CompletableFuture<Void> submit(Runnable runnable, Executor executor) {
+            Task task = new Task(runnable, executor);
+            synchronized (this) {
+                if (tasks.size() >= queueLimit) {
+                    rejected.incrementAndGet();
+                    log.warn("Rejecting command for {}: {} commands already queued", key, tasks.size());
+                    task.future.completeExceptionally(new RejectedExecutionException("Command queue full for " + key));
+                    return task.future;
+                }
+                tasks.add(task);
+                if (!running) {
+                    running = true;
+                    next();
+                }
+            }
+            return task.future;
+        }
+
+        private synchronized int depth() {
+            return tasks.size() + (running ? 1 : 0);
+        }
+
+        private synchronized void next() {
+            Task task = tasks.poll();
+            if (task == null) {
+                running = false;
+                return;
+            }
+            try {
+                task.executor.execute(() -> {
+                    try {
+                        task.runnable.run();
+                        task.future.complete(null);
+                    } catch (Throwable t) {
+                        log.warn("Could not complete command", t);
+                        task.future.completeExceptionally(t);
+                    } finally {
+                        next();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                log.warn("Could not schedule command for {}: {}", key, e.toString());
+                task.future.completeExceptionally(e);
+                next();
+            }
+        }
+    }
+
+    private static class Task {
+
+        private final Runnable runnable;
+        private final Executor executor;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Task(Runnable runnable, Executor executor) {
+            this.runnable = runnable;
+            this.executor = executor;
+        }
+    }
+}
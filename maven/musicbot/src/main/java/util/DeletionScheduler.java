@@ -0,0 +1,151 @@
+package util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sx.blah.discord.handle.obj.IChannel;
+import sx.blah.discord.handle.obj.IMessage;
+import sx.blah.discord.util.DiscordException;
+import sx.blah.discord.util.MissingPermissionsException;
+import util.OutboundScheduler.Priority;
+import util.OutboundScheduler.Route;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes messages after a delay using a single timer thread. Due times are rounded up to a tick, and messages of
+ * the same channel due in the same tick are removed with one bulk delete request.
+ */
+public class DeletionScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(DeletionScheduler.class);
+    // bulk delete accepts between 2 and 100 messages
+    private static final int BULK_LIMIT = 100;
+
+    private final long tickNanos;
+    private final long origin = System.nanoTime();
+    private final ScheduledExecutorService timer;
+    private final Map<String, Batch> batches = new HashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong lastLagNanos = new AtomicLong();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private final AtomicLong bulkRequests = new AtomicLong();
+
+    /**
+     * @param tick granularity of due times, deletions within the same tick are grouped
+     * @param unit unit of the tick
+     */
+    public DeletionScheduler(long tick, TimeUnit unit) {
+        this.tickNanos = Math.max(1, unit.toNanos(tick));
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-deletion");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void schedule(IMessage message, long delay, TimeUnit unit) {
+        long elapsed = System.nanoTime() - origin;
+        long tick = (elapsed + Math.max(0, unit.toNanos(delay)) + tickNanos - 1) / tickNanos;
+        IChannel channel = message.getChannel();
+        String key = channel.getID() + ":" + tick;
+        pending.incrementAndGet();
+        synchronized (batches) {
+            Batch batch = batches.get(key);
+            if (batch == null) {
+                batch = new Batch(channel, tick * tickNanos);
+                batches.put(key, batch);
+                Batch scheduled = batch;
+                timer.schedule(() -> flush(key, scheduled), tick * tickNanos - elapsed, TimeUnit.NANOSECONDS);
+            }
+            batch.messages.add(message);
+        }
+    }
+
+    /**
+     * @return the number of messages waiting to be deleted
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * @return how late the most recent batch was handed to the request queue, in milliseconds
+     */
+    public long getLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastLagNanos.get());
+    }
+
+    /**
+     * @return the highest lag seen so far, in milliseconds
+     */
+    public long getMaxLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLagNanos.get());
+    }
+
+    /**
+     * @return the number of bulk delete requests sent
+     */
+    public long getBulkRequestCount() {
+        return bulkRequests.get();
+    }
+
+    public void shutdown() {
+        timer.shutdown();
+    }
+
+    private void flush(String key, Batch batch) {
+        synchronized (batches) {
+            batches.remove(key, batch);
+        }
+        long lag = Math.max(0, System.nanoTime() - origin - batch.due);
+        lastLagNanos.set(lag);
+        maxLagNanos.accumulateAndGet(lag, Math::max);
+        pending.addAndGet(-batch.messages.size());
+        List<IMessage> messages = batch.messages;
+        if (batch.channel.isPrivate() || messages.size() == 1) {
+            messages.forEach(DiscordUtil::deleteMessage);
+            return;
+        }
+        for (int from = 0; from < messages.size(); from += BULK_LIMIT) {
+            List<IMessage> chunk = messages.subList(from, Math.min(messages.size(), from + BULK_LIMIT));
+            if (chunk.size() == 1) {
+                DiscordUtil.deleteMessage(chunk.get(0));
+            } else {
+                bulkDelete(batch.channel, chunk);
+            }
+        }
+    }
+
+    private void bulkDelete(IChannel channel, List<IMessage> messages) {
+        bulkRequests.incrementAndGet();
+        DiscordUtil.getOutboundScheduler().submit(Priority.DELETE, Route.BULK_DELETE, channel.getID(), () -> {
+            try {
+                channel.getMessages().bulkDelete(messages);
+            } catch (MissingPermissionsException | DiscordException e) {
+                // bulk deletes need the manage messages permission, deleting one by one might still work
+                log.debug("Bulk delete of {} messages failed, deleting one by one: {}", messages.size(), e.toString());
+                messages.forEach(DiscordUtil::deleteMessage);
+            }
+        });
+    }
+
+    private static class Batch {
+
+        private final IChannel channel;
+        private final long due;
+        private final List<IMessage> messages = new ArrayList<>();
+
+        private Batch(IChannel channel, long due) {
+            this.channel = channel;
+            this.due = due;
+        }
+    }
+}
@@ -6,75 +6,90 @@ import sx.blah.discord.handle.obj.IChannel;
 import sx.blah.discord.handle.obj.IMessage;
 import sx.blah.discord.util.DiscordException;
 import sx.blah.discord.util.MissingPermissionsException;
-import sx.blah.discord.util.RequestBuffer;
+import util.OutboundScheduler.Priority;
+import util.OutboundScheduler.Route;
 
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 public class DiscordUtil {
 
     private static final Logger log = LoggerFactory.getLogger(DiscordUtil.class);
     private static final int LENGTH_LIMIT = 2000;
+    // requests per second allowed across all routes
+    private static final int GLOBAL_RATE = 50;
 
-    public static RequestBuffer.RequestFuture<IMessage> sendMessage(final IChannel channel, final String content) {
-        RequestBuffer.RequestFuture<IMessage> response = null;
+    private static final OutboundScheduler outbound = new OutboundScheduler(GLOBAL_RATE);
+    private static final DeletionScheduler deletions = new DeletionScheduler(1, TimeUnit.SECONDS);
+
+    private static volatile MessageCoalescer coalescer;
+
+    /**
+     * Merge messages sent to the same channel within the given window into a single post. A window of zero sends
+     * every message on its own.
+     */
+    public static void setCoalescingWindow(long window, TimeUnit unit) {
+        MessageCoalescer previous = coalescer;
+        coalescer = window > 0 ? new MessageCoalescer(window, unit, LENGTH_LIMIT, DiscordUtil::sendNow) : null;
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    public static MessageCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    public static void sendMessage(final IChannel channel, final String content) {
+        MessageCoalescer current = coalescer;
+        if (current != null) {
+            current.submit(channel, content);
+        } else {
+            sendNow(channel, content);
+        }
+    }
+
+    private static void sendNow(final IChannel channel, final String content) {
         if (content.length() > LENGTH_LIMIT) {
             SplitMessage splitMessage = new SplitMessage(content);
             List<String> splits = splitMessage.split(LENGTH_LIMIT);
             for (String split : splits) {
-                response = sendMessage0(channel, split);
+                sendMessage0(channel, split);
             }
         } else {
-            response = sendMessage0(channel, content);
+            sendMessage0(channel, content);
         }
-        return response;
     }
 
-    private static RequestBuffer.RequestFuture<IMessage> sendMessage0(final IChannel channel, final String content) {
-        return RequestBuffer.request(() -> {
+    private static void sendMessage0(final IChannel channel, final String content) {
+        outbound.submit(Priority.REPLY, Route.MESSAGES, channel.getID(), () -> {
             try {
-                return channel.sendMessage(content);
+                channel.sendMessage(content);
             } catch (MissingPermissionsException | DiscordException ex) {
                 log.warn("Could not send message", ex);
             }
-            return null;
         });
     }
 
     public static void deleteMessage(IMessage message) {
-        RequestBuffer.request(() -> {
+        outbound.submit(Priority.DELETE, Route.DELETE, message.getChannel().getID(), () -> {
             try {
                 message.delete();
             } catch (MissingPermissionsException | DiscordException e) {
                 log.warn("Failed to delete message", e);
             }
-            return null;
         });
     }
 
     public static void deleteMessage(IMessage message, long timeout, TimeUnit unit) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                unit.sleep(timeout);
-            } catch (InterruptedException ex) {
-                log.warn("Could not perform cleanup: {}", ex.toString());
-            }
-        }).thenRun(() -> RequestBuffer.request(() -> {
-            try {
-                message.delete();
-            } catch (MissingPermissionsException | DiscordException e) {
-                log.warn("Failed to delete message", e);
-            }
-            return null;
-        }));
+        deletions.schedule(message, timeout, unit);
+    }
+
+    public static OutboundScheduler getOutboundScheduler() {
+        return outbound;
     }
 
-    public static CompletableFuture<Void> processCommand(Runnable runnable) {
-        return CompletableFuture.runAsync(runnable)
-            .exceptionally(t -> {
-                log.warn("Could not complete command", t);
-                return null;
-            });
+    public static DeletionScheduler getDeletionScheduler() {
+        return deletions;
     }
 }
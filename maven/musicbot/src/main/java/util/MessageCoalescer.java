@@ -0,0 +1,152 @@
+package util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sx.blah.discord.handle.obj.IChannel;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Buffers outgoing messages per channel for a short window and sends them as a single post, keeping their order
+ * and never going over the length limit, so bursts of replies use up fewer rate limited requests.
+ */
+public class MessageCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageCoalescer.class);
+
+    private final long windowNanos;
+    private final int lengthLimit;
+    private final BiConsumer<IChannel, String> sender;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Pending> pending = new HashMap<>();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong posts = new AtomicLong();
+    private final AtomicLong totalDelayNanos = new AtomicLong();
+    private final AtomicLong maxDelayNanos = new AtomicLong();
+
+    /**
+     * @param window      how long to wait for more messages after the first one in a channel
+     * @param unit        unit of the window
+     * @param lengthLimit maximum length of a merged post
+     * @param sender      sends a merged post
+     */
+    public MessageCoalescer(long window, TimeUnit unit, int lengthLimit, BiConsumer<IChannel, String> sender) {
+        this.windowNanos = unit.toNanos(window);
+        this.lengthLimit = lengthLimit;
+        this.sender = sender;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void submit(IChannel channel, String content) {
+        // sending only hands the post to the request queue, so it is done under the lock to keep the order
+        synchronized (pending) {
+            Pending current = pending.get(channel.getID());
+            if (content.length() >= lengthLimit) {
+                // too long to merge: send what is pending first
+                if (current != null) {
+                    send(pending.remove(channel.getID()));
+                }
+                posts.incrementAndGet();
+                sender.accept(channel, content);
+                return;
+            }
+            if (current != null && current.length() + 1 + content.length() > lengthLimit) {
+                send(pending.remove(channel.getID()));
+                current = null;
+            }
+            if (current == null) {
+                current = new Pending(channel);
+                pending.put(channel.getID(), current);
+                Pending scheduled = current;
+                scheduler.schedule(() -> flush(scheduled), windowNanos, TimeUnit.NANOSECONDS);
+            }
+            current.add(content);
+        }
+    }
+
+    /**
+     * @return the number of messages merged into another post instead of being sent on their own
+     */
+    public long getMergedCount() {
+        return merged.get();
+    }
+
+    /**
+     * @return the average time a post waited in the buffer, in milliseconds
+     */
+    public double getAverageDelayMillis() {
+        long sent = posts.get();
+        return sent == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalDelayNanos.get()) / 1000.0 / sent;
+    }
+
+    /**
+     * @return the longest time a post waited in the buffer, in milliseconds
+     */
+    public long getMaxDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxDelayNanos.get());
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    private void flush(Pending scheduled) {
+        synchronized (pending) {
+            // otherwise it was already sent because it filled up
+            if (pending.remove(scheduled.channel.getID(), scheduled)) {
+                send(scheduled);
+            }
+        }
+    }
+
+    private void send(Pending batch) {
+        long delay = System.nanoTime() - batch.created;
+        totalDelayNanos.addAndGet(delay);
+        maxDelayNanos.accumulateAndGet(delay, Math::max);
+        posts.incrementAndGet();
+        merged.addAndGet(batch.count - 1);
+        if (batch.count > 1) {
+            log.debug("Merged {} messages to channel {} after {} ms", batch.count, batch.channel.getID(),
+                TimeUnit.NANOSECONDS.toMillis(delay));
+        }
+        try {
+            sender.accept(batch.channel, batch.content.toString());
+        } catch (RuntimeException e) {
+            log.warn("Could not send merged message", e);
+        }
+    }
+
+    private static class Pending {
+
+        private final IChannel channel;
+        private final StringBuilder content = new StringBuilder();
+        private final long created = System.nanoTime();
+        private int count;
+
+        private Pending(IChannel channel) {
+            this.channel = channel;
+        }
+
+        private int length() {
+            return content.length();
+        }
+
+        private void add(String message) {
+            if (count > 0) {
+                content.append('\n');
+            }
+            content.append(message);
+            count++;
+        }
+    }
+}
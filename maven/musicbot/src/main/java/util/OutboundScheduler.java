@@ -0,0 +1,314 @@
+package util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sx.blah.discord.util.RateLimitException;
+import sx.blah.discord.util.RequestBuffer;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Orders outgoing REST requests before they reach the {@link RequestBuffer}. Every route has a token bucket that
+ * follows Discord's rate limits, and a global bucket bounds the total request rate. When requests have to wait, user
+ * facing replies go first, then deletions, then profile changes. Low priority requests that waited too long are
+ * dropped.
+ */
+public class OutboundScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboundScheduler.class);
+    private static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    public enum Priority {
+        REPLY(0), DELETE(TimeUnit.MINUTES.toNanos(10)), PROFILE(TimeUnit.MINUTES.toNanos(1));
+
+        // zero if requests of this priority are never dropped
+        private final long maxAgeNanos;
+
+        Priority(long maxAgeNanos) {
+            this.maxAgeNanos = maxAgeNanos;
+        }
+    }
+
+    public enum Route {
+        MESSAGES(5, 5, TimeUnit.SECONDS),
+        DELETE(5, 1, TimeUnit.SECONDS),
+        BULK_DELETE(1, 1, TimeUnit.SECONDS),
+        PROFILE(2, 1, TimeUnit.HOURS);
+
+        private final int capacity;
+        private final long periodNanos;
+
+        Route(int capacity, long period, TimeUnit unit) {
+            this.capacity = capacity;
+            this.periodNanos = unit.toNanos(period);
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<Priority, ArrayDeque<Task>> queues = new EnumMap<>(Priority.class);
+    private final Map<String, Bucket> buckets = new HashMap<>();
+    private final Bucket global;
+    private final Map<Route, RouteStats> stats = new EnumMap<>(Route.class);
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+    private long lastSweep = System.nanoTime();
+
+    /**
+     * @param globalRate maximum number of requests per second across all routes
+     */
+    public OutboundScheduler(int globalRate) {
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+        }
+        for (Route route : Route.values()) {
+            stats.put(route, new RouteStats());
+        }
+        this.global = new Bucket(globalRate, TimeUnit.SECONDS.toNanos(1));
+        this.dispatcher = new Thread(this::run, "outbound-scheduler");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Queue a request.
+     *
+     * @param priority how urgent the request is
+     * @param route    the rate limited route it uses
+     * @param major    the ID the route is limited by, usually a channel ID
+     * @param request  the request, a thrown {@link RateLimitException} is retried by the request buffer
+     */
+    public void submit(Priority priority, Route route, String major, RequestBuffer.IVoidRequest request) {
+        Task task = new Task(route, route.name() + ":" + major, request);
+        lock.lock();
+        try {
+            queues.get(priority).add(task);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of requests waiting for a token
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            int depth = 0;
+            for (ArrayDeque<Task> queue : queues.values()) {
+                depth += queue.size();
+            }
+            return depth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<Route, RouteStats> getRouteStats() {
+        return stats;
+    }
+
+    public void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            lock.lock();
+            try {
+                long wait = dispatch(System.nanoTime());
+                if (wait == Long.MAX_VALUE) {
+                    changed.await();
+                } else if (wait > 0) {
+                    changed.awaitNanos(wait);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Could not dispatch outbound requests", e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Hand every request that has a token to the request buffer, highest priority first.
+     *
+     * @return nanoseconds until the next token is due, or Long.MAX_VALUE if nothing is waiting
+     */
+    private long dispatch(long now) {
+        long wait = Long.MAX_VALUE;
+        // routes that ran out of tokens in this pass, so later requests keep their order behind the first one
+        Set<String> blocked = new HashSet<>();
+        for (Priority priority : Priority.values()) {
+            Iterator<Task> iterator = queues.get(priority).iterator();
+            while (iterator.hasNext()) {
+                Task task = iterator.next();
+                if (priority.maxAgeNanos > 0 && now - task.submitted > priority.maxAgeNanos) {
+                    iterator.remove();
+                    stats.get(task.route).dropped.incrementAndGet();
+                    log.debug("Dropped {} request on {} after waiting {} ms", priority, task.key,
+                        TimeUnit.NANOSECONDS.toMillis(now - task.submitted));
+                    continue;
+                }
+                if (blocked.contains(task.key)) {
+                    continue;
+                }
+                Bucket bucket = buckets.computeIfAbsent(task.key, key -> new Bucket(task.route.capacity,
+                    task.route.periodNanos));
+                long due = Math.max(bucket.nanosUntilToken(now), global.nanosUntilToken(now));
+                if (due > 0) {
+                    if (!task.throttled) {
+                        task.throttled = true;
+                        stats.get(task.route).throttled.incrementAndGet();
+                    }
+                    blocked.add(task.key);
+                    wait = Math.min(wait, due);
+                    continue;
+                }
+                bucket.take();
+                global.take();
+                iterator.remove();
+                execute(task);
+            }
+        }
+        if (now - lastSweep > SWEEP_INTERVAL) {
+            lastSweep = now;
+            buckets.values().removeIf(bucket -> bucket.isFull(now));
+        }
+        return wait;
+    }
+
+    private void execute(Task task) {
+        RouteStats routeStats = stats.get(task.route);
+        RequestBuffer.request(() -> {
+            try {
+                task.request.doRequest();
+            } catch (RateLimitException e) {
+                routeStats.rateLimited.incrementAndGet();
+                throw e;
+            }
+            routeStats.record(System.nanoTime() - task.submitted);
+        });
+    }
+
+    private static class Task {
+
+        private final Route route;
+        private final String key;
+        private final RequestBuffer.IVoidRequest request;
+        private final long submitted = System.nanoTime();
+        private boolean throttled;
+
+        private Task(Route route, String key, RequestBuffer.IVoidRequest request) {
+            this.route = route;
+            this.key = key;
+            this.request = request;
+        }
+    }
+
+    /**
+     * Holds up to capacity tokens and refills them evenly over the period.
+     */
+    private static class Bucket {
+
+        private final int capacity;
+        private final long nanosPerToken;
+        private double tokens;
+        private long updated = System.nanoTime();
+
+        private Bucket(int capacity, long periodNanos) {
+            this.capacity = capacity;
+            this.nanosPerToken = periodNanos / capacity;
+            this.tokens = capacity;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(capacity, tokens + (double) (now - updated) / nanosPerToken);
+            updated = now;
+        }
+
+        private long nanosUntilToken(long now) {
+            refill(now);
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * nanosPerToken);
+        }
+
+        private void take() {
+            tokens -= 1;
+        }
+
+        private boolean isFull(long now) {
+            refill(now);
+            return tokens >= capacity;
+        }
+    }
+
+    public static class RouteStats {
+
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong totalLatencyNanos = new AtomicLong();
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+        private final AtomicLong throttled = new AtomicLong();
+        private final AtomicLong rateLimited = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+
+        private void record(long latencyNanos) {
+            requests.incrementAndGet();
+            totalLatencyNanos.addAndGet(latencyNanos);
+            maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+        }
+
+        /**
+         * @return the number of completed requests
+         */
+        public long getRequestCount() {
+            return requests.get();
+        }
+
+        /**
+         * @return the average time from submission to completion, in milliseconds
+         */
+        public double getAverageLatencyMillis() {
+            long count = requests.get();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalLatencyNanos.get()) / 1000.0 / count;
+        }
+
+        public long getMaxLatencyMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
+        }
+
+        /**
+         * @return the number of requests held back until their bucket refilled, each a rate limit hit avoided
+         */
+        public long getThrottledCount() {
+            return throttled.get();
+        }
+
+        /**
+         * @return the number of rate limit responses received anyway
+         */
+        public long getRateLimitedCount() {
+            return rateLimited.get();
+        }
+
+        /**
+         * @return the number of requests dropped after waiting too long
+         */
+        public long getDroppedCount() {
+            return dropped.get();
+        }
+    }
+}
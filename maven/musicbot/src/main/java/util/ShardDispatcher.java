@@ -0,0 +1,249 @@
+package util;
+
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sx.blah.discord.api.events.Event;
+import sx.blah.discord.api.events.EventSubscriber;
+import sx.blah.discord.api.events.IListener;
+import sx.blah.discord.handle.impl.events.MessageReceivedEvent;
+import sx.blah.discord.handle.impl.events.VoiceDisconnectedEvent;
+import sx.blah.discord.handle.obj.IChannel;
+import sx.blah.discord.handle.obj.IGuild;
+import sx.blah.discord.util.audio.events.AudioPlayerEvent;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Delivers events to {@link EventSubscriber} methods on one thread per shard, so a busy shard can't hold up the
+ * others and events of a guild are seen in the order they were dispatched. Events are assigned to the shard that owns
+ * their guild, private messages to shard 0; events that belong to no guild, such as ready and reconnect events, are
+ * delivered on the thread that dispatched them.
+ */
+public class ShardDispatcher implements IListener<Event> {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardDispatcher.class);
+    private static final Counter EVENTS = Metrics.counter("musicbot_shard_events_total",
+        "Events delivered to listeners, by shard", "shard");
+    private static final Histogram DISPATCH_LAG = Metrics.histogram("musicbot_shard_dispatch_lag_seconds",
+        "Time events waited for their shard's thread", "shard");
+    private static final Counter NOT_OWNED = Metrics.counter("musicbot_messages_not_owned_total",
+        "Messages ignored because their guild belongs to another cluster node");
+
+    private final Shard[] shards;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<Class<?>, List<Subscriber>> subscribersByType = new ConcurrentHashMap<>();
+    private volatile Predicate<String> ownership = key -> true;
+    private volatile Predicate<String> messageFilter = content -> true;
+
+    public ShardDispatcher(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    /**
+     * Shard that owns a guild, by the formula Discord uses to assign guilds to gateway connections.
+     */
+    public static int shardOf(String guildId, int shardCount) {
+        try {
+            return (int) ((Long.parseLong(guildId) >>> 22) % shardCount);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Register every method of the listener annotated with {@link EventSubscriber} that takes a single event.
+     */
+    public void registerListener(Object listener) {
+        for (Method method : listener.getClass().getMethods()) {
+            if (method.isAnnotationPresent(EventSubscriber.class) && method.getParameterCount() == 1
+                && Event.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                subscribers.add(new Subscriber(listener, method));
+            }
+        }
+        subscribersByType.clear();
+    }
+
+    /**
+     * Only deliver messages whose guild, or private channel for direct messages, passes the test. Other events are
+     * always delivered.
+     */
+    public void setOwnership(Predicate<String> ownership) {
+        this.ownership = ownership;
+    }
+
+    /**
+     * Drop messages whose content fails the test on the dispatching thread, before they are checked for ownership or
+     * handed to a shard, so plain chat costs no more than the test.
+     */
+    public void setMessageFilter(Predicate<String> messageFilter) {
+        this.messageFilter = messageFilter;
+    }
+
+    @Override
+    public void handle(Event event) {
+        if (event instanceof MessageReceivedEvent) {
+            MessageReceivedEvent message = (MessageReceivedEvent) event;
+            if (!messageFilter.test(message.getMessage().getContent())) {
+                return;
+            }
+            if (!ownership.test(ownerKey(message))) {
+                NOT_OWNED.inc();
+                return;
+            }
+        }
+        List<Subscriber> targets = subscribersByType.computeIfAbsent(event.getClass(), this::findSubscribers);
+        if (targets.isEmpty()) {
+            return;
+        }
+        int index = shardOf(event);
+        if (index < 0) {
+            deliver(event, targets);
+        } else {
+            shards[index].submit(event, targets);
+        }
+    }
+
+    /**
+     * @return the shard whose thread handles the event, or -1 if it belongs to no guild
+     */
+    public int shardOf(Event event) {
+        IGuild guild;
+        if (event instanceof MessageReceivedEvent) {
+            IChannel channel = ((MessageReceivedEvent) event).getMessage().getChannel();
+            if (channel.isPrivate()) {
+                return 0;
+            }
+            guild = channel.getGuild();
+        } else if (event instanceof AudioPlayerEvent) {
+            guild = ((AudioPlayerEvent) event).getPlayer().getGuild();
+        } else if (event instanceof VoiceDisconnectedEvent) {
+            guild = ((VoiceDisconnectedEvent) event).getGuild();
+        } else {
+            return -1;
+        }
+        return guild == null ? 0 : shardOf(guild.getID(), shards.length);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return events waiting for or being delivered on each shard's thread, by shard index
+     */
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new HashMap<>();
+        for (Shard shard : shards) {
+            depths.put(shard.label, shard.queued.get());
+        }
+        return depths;
+    }
+
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.executor.shutdown();
+        }
+    }
+
+    private static String ownerKey(MessageReceivedEvent event) {
+        IChannel channel = event.getMessage().getChannel();
+        return channel.isPrivate() ? channel.getID() : channel.getGuild().getID();
+    }
+
+    private List<Subscriber> findSubscribers(Class<?> eventType) {
+        List<Subscriber> found = new ArrayList<>();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.method.getParameterTypes()[0].isAssignableFrom(eventType)) {
+                found.add(subscriber);
+            }
+        }
+        return found.isEmpty() ? Collections.emptyList() : found;
+    }
+
+    private static void deliver(Event event, List<Subscriber> targets) {
+        for (Subscriber subscriber : targets) {
+            try {
+                subscriber.method.invoke(subscriber.listener, event);
+            } catch (InvocationTargetException e) {
+                log.warn("Listener failed on {}", event.getClass().getSimpleName(), e.getCause());
+            } catch (IllegalAccessException e) {
+                log.warn("Could not call listener {}", subscriber.method, e);
+            }
+        }
+    }
+
+    private static class Shard {
+
+        private final String label;
+        private final ExecutorService executor;
+        private final LongAdder events;
+        private final Histogram.Child lag;
+        private final AtomicInteger queued = new AtomicInteger();
+
+        private Shard(int index) {
+            this.label = String.valueOf(index);
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "shard-" + index + "-events");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.events = EVENTS.labels(label);
+            this.lag = DISPATCH_LAG.labels(label);
+        }
+
+        private void submit(Event event, List<Subscriber> targets) {
+            long submitted = System.nanoTime();
+            queued.incrementAndGet();
+            try {
+                executor.execute(() -> {
+                    lag.observeSince(submitted);
+                    try {
+                        deliver(event, targets);
+                    } finally {
+                        queued.decrementAndGet();
+                        events.increment();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                queued.decrementAndGet();
+                log.debug("Dropping {} for shard {} after shutdown", event.getClass().getSimpleName(), label);
+            }
+        }
+    }
+
+    private static class Subscriber {
+
+        private final Object listener;
+        private final Method method;
+
+        private Subscriber(Object listener, Method method) {
+            this.listener = listener;
+            this.method = method;
+            method.setAccessible(true);
+        }
+    }
+}
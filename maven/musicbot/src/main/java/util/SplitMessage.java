@@ -1,54 +1,202 @@
 package util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Splits long messages into chunks under a length limit, preferring to cut at line breaks and closing then
+ * reopening code blocks that span a cut.
+ * <p>
+ * The content is walked once: the remaining text is kept as an offset into the message plus a short prefix (the
+ * reopened code block tag), code block tags are counted from precomputed backtick runs instead of rescanning the
+ * remainder for every chunk, and line breaks are only searched for within the chunk being cut.
+ */
 public class SplitMessage {
 
+    private static final String TAG = "```";
+    private static final String REOPEN = "```\n";
+    private static final String CLOSE = "\n```";
+
     private final String message;
 
     public SplitMessage(String message) {
         this.message = message;
     }
 
+    /**
+     * Every chunk holds part of the message and, for limits of at least 9 characters, stays within the limit
+     * including the tags added to close and reopen code blocks.
+     */
     public List<String> split(int maxLength) {
         List<String> splits = new ArrayList<>();
-        String str = message;
-        int end;
-        while (!str.isEmpty()) {
-            int codeBlockTags = countOccurrencesOf(str, "```");
-            if (str.length() <= Math.max(1, maxLength - (codeBlockTags > 0 ? 4 : 0))) {
-                splits.add(str);
-                str = "";
+        TagCounter tags = new TagCounter(message);
+        int length = message.length();
+        String prefix = "";
+        int base = 0;
+        while (base < length) {
+            int remaining = prefix.length() + length - base;
+            int prefixTags = countTags(prefix);
+            int codeBlockTags = prefixTags + tags.countFrom(base);
+            if (remaining <= Math.max(1, maxLength - (codeBlockTags > 0 ? CLOSE.length() : 0))) {
+                splits.add(prefix.isEmpty() ? message.substring(base) : prefix + message.substring(base));
+                break;
+            }
+            int cut = cutPoint(prefix, base, maxLength);
+            boolean reopen = reopens(codeBlockTags, prefixTags + tags.countBetween(base, cut));
+            if (reopen && prefix.length() + cut - base + CLOSE.length() > maxLength) {
+                // leave room for the closing tag
+                cut = cutPoint(prefix, base, maxLength - CLOSE.length());
+                reopen = reopens(codeBlockTags, prefixTags + tags.countBetween(base, cut));
+            }
+            // a chunk ending with the tag that opens the block would send it empty: if the tag is all the chunk
+            // holds, cut past it as far as fits, otherwise cut before it
+            int run = openingRun(base, cut, reopen);
+            if (run == base) {
+                cut = Math.min(length, base + Math.max(1, maxLength - CLOSE.length() - prefix.length()));
+                reopen = reopens(codeBlockTags, prefixTags + tags.countBetween(base, cut));
+                run = openingRun(base, cut, reopen);
+            }
+            if (run > base && run < cut) {
+                cut = run;
+                reopen = reopens(codeBlockTags, prefixTags + tags.countBetween(base, cut));
+            }
+            if (prefix.isEmpty() && !reopen) {
+                splits.add(message.substring(base, cut));
             } else {
-                end = Math.min(str.length(), str.lastIndexOf("\n", maxLength));
-                if (end <= 0) {
-                    end = Math.min(str.length(), maxLength);
+                StringBuilder split = new StringBuilder(prefix.length() + cut - base + CLOSE.length());
+                split.append(prefix).append(message, base, cut);
+                if (reopen) {
+                    split.append(CLOSE);
                 }
-                String split = str.substring(0, end);
-                str = str.substring(end);
-                int tagsAfterSplit = countOccurrencesOf(split, "```");
-                if (codeBlockTags > 0 && tagsAfterSplit < codeBlockTags && tagsAfterSplit % 2 != 0) {
-                    split = split + "\n```";
-                    str = "```\n" + str;
-                }
-                splits.add(split);
+                splits.add(split.toString());
             }
+            prefix = reopen ? REOPEN : "";
+            base = cut;
         }
         return splits;
     }
 
-    private static int countOccurrencesOf(String str, String sub) {
-        if (str == null || sub == null || str.length() == 0 || sub.length() == 0) {
+    /**
+     * Start of the backticks a chunk ending at cut closes with, when they hold the tag opening a block that is
+     * reopened in the next chunk, or cut otherwise.
+     */
+    private int openingRun(int base, int cut, boolean reopen) {
+        if (!reopen) {
+            return cut;
+        }
+        int run = cut;
+        while (run > base && message.charAt(run - 1) == '`') {
+            run--;
+        }
+        return cut - run >= TAG.length() ? run : cut;
+    }
+
+    private static boolean reopens(int codeBlockTags, int tagsAfterSplit) {
+        return codeBlockTags > 0 && tagsAfterSplit < codeBlockTags && tagsAfterSplit % 2 != 0;
+    }
+
+    /**
+     * End in the message of a chunk that starts at base after the prefix and holds at most budget characters: the
+     * last line break that fits, or as much as fits if none does. Always past base, so every chunk holds part of the
+     * message; only line breaks in the message count, a cut inside the reopened tag would leave an empty block.
+     */
+    private int cutPoint(String prefix, int base, int budget) {
+        int room = Math.max(1, budget - prefix.length());
+        // scan only this chunk's window, searching further back would make newline-free text quadratic
+        for (int i = Math.min(message.length() - 1, base + room); i > base; i--) {
+            if (message.charAt(i) == '\n') {
+                return i;
+            }
+        }
+        return Math.min(message.length(), base + room);
+    }
+
+    private static int countTags(String str) {
+        if (str.isEmpty()) {
             return 0;
         }
         int count = 0;
         int pos = 0;
         int idx;
-        while ((idx = str.indexOf(sub, pos)) != -1) {
+        while ((idx = str.indexOf(TAG, pos)) != -1) {
             ++count;
-            pos = idx + sub.length();
+            pos = idx + TAG.length();
         }
         return count;
     }
+
+    /**
+     * Counts non-overlapping code block tags in ranges of the message. A run of k backticks holds k / 3 tags when
+     * scanned from its start, so only runs of three or more backticks are recorded.
+     */
+    private static class TagCounter {
+
+        private final int[] starts;
+        private final int[] ends;
+        private final int runs;
+        // suffix sums of tags per run
+        private final int[] tagsFrom;
+        // first run whose end is past the last queried offset, offsets only move forward
+        private int cursor;
+
+        private TagCounter(String message) {
+            int capacity = 0;
+            int[] runStarts = new int[4];
+            int[] runEnds = new int[4];
+            int length = message.length();
+            int i = message.indexOf(TAG);
+            while (i != -1) {
+                int end = i;
+                while (end < length && message.charAt(end) == '`') {
+                    end++;
+                }
+                if (capacity == runStarts.length) {
+                    runStarts = Arrays.copyOf(runStarts, capacity * 2);
+                    runEnds = Arrays.copyOf(runEnds, capacity * 2);
+                }
+                runStarts[capacity] = i;
+                runEnds[capacity] = end;
+                capacity++;
+                i = message.indexOf(TAG, end);
+            }
+            this.starts = runStarts;
+            this.ends = runEnds;
+            this.runs = capacity;
+            this.tagsFrom = new int[capacity + 1];
+            for (int r = capacity - 1; r >= 0; r--) {
+                tagsFrom[r] = tagsFrom[r + 1] + (ends[r] - starts[r]) / 3;
+            }
+        }
+
+        /**
+         * Tags found scanning message[from:].
+         */
+        private int countFrom(int from) {
+            advance(from);
+            if (cursor == runs) {
+                return 0;
+            }
+            int first = (ends[cursor] - Math.max(starts[cursor], from)) / 3;
+            return first + tagsFrom[cursor + 1];
+        }
+
+        /**
+         * Tags found scanning message[from:to].
+         */
+        private int countBetween(int from, int to) {
+            advance(from);
+            int count = 0;
+            for (int r = cursor; r < runs && starts[r] < to; r++) {
+                count += (Math.min(ends[r], to) - Math.max(starts[r], from)) / 3;
+            }
+            return count;
+        }
+
+        private void advance(int from) {
+            while (cursor < runs && ends[cursor] <= from) {
+                cursor++;
+            }
+        }
+    }
 }
@@ -0,0 +1,72 @@
+package audio;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class YouTubeUrlTest {
+
+    private static final Pattern LEGACY_URL = Pattern.compile("(?:https?://)?(?:(?:(?:www\\.?)?youtube\\.com(?:/(?:(?:watch\\?.*?(v=[^&\\s]+).*)|(?:v(/.*))|(channel/.+)|(?:user/(.+))|(?:results\\?(search_query=.+))))?)|(?:youtu\\.be(/.*)?))");
+
+    @Test
+    public void matchesLegacyPatternOnCorpus() throws IOException {
+        List<String> corpus = readCorpus();
+        assertFalse(corpus.isEmpty());
+        for (String input : corpus) {
+            assertEquals("video ID of '" + input + "'", legacyVideoId(input), YouTubeUrl.extractVideoId(input));
+        }
+    }
+
+    @Test
+    public void slicePointsAtTheVideoId() {
+        String input = "look at youtu.be/dQw4w9WgXcQ";
+        long slice = YouTubeUrl.findVideoId(input);
+        assertEquals("dQw4w9WgXcQ", input.substring(YouTubeUrl.start(slice), YouTubeUrl.end(slice)));
+        assertEquals(-1, YouTubeUrl.findVideoId("https://soundcloud.com/artist/track"));
+    }
+
+    /**
+     * The extraction StreamService did before YouTubeUrl.
+     */
+    private static Optional<String> legacyVideoId(String url) {
+        Matcher matcher = LEGACY_URL.matcher(url);
+        if (matcher.find()) {
+            String group1 = matcher.group(1);
+            String group2 = matcher.group(2);
+            String group6 = matcher.group(6);
+            if (group1 != null && !group1.isEmpty()) {
+                return Optional.of(group1.substring(2)); // strip "v="
+            } else if (group2 != null && !group2.isEmpty() && !group2.substring(1).isEmpty()) {
+                return Optional.of(group2.substring(1)); // strip "/"
+            } else if (group6 != null && !group6.isEmpty() && !group6.substring(1).isEmpty()) {
+                return Optional.of(group6.substring(1)); // strip "/"
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static List<String> readCorpus() throws IOException {
+        List<String> inputs = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            YouTubeUrlTest.class.getResourceAsStream("/video-urls.txt"), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("#")) {
+                    inputs.add(line.replace("\\t", "\t").replace("\\n", "\n").replace("\\r", "\r")
+                        .replace("\\u0085", "\u0085"));
+                }
+            }
+        }
+        return inputs;
+    }
+}
@@ -0,0 +1,73 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControlTest {
+
+    @Test
+    public void rejectionsAreCountedByResult() {
+        AdmissionControl admission = new AdmissionControl(1, 0, 100, 0, 1, 60);
+        Object first = new Object();
+        Object second = new Object();
+        assertEquals(AdmissionControl.Result.ADMITTED, admission.tryAcquire("1", "10", 1, first));
+        assertEquals(AdmissionControl.Result.USER_LIMITED, admission.tryAcquire("1", "10", 1, null));
+        assertEquals(AdmissionControl.Result.BUSY, admission.tryAcquire("2", "10", 1, second));
+        admission.release(first);
+        assertEquals(AdmissionControl.Result.ADMITTED, admission.tryAcquire("2", "10", 1, second));
+
+        Map<String, Long> counts = admission.getRejectedCounts();
+        assertEquals(Long.valueOf(1), counts.get("user_limited"));
+        assertEquals(Long.valueOf(0), counts.get("guild_limited"));
+        assertEquals(Long.valueOf(1), counts.get("busy"));
+        assertEquals(1, admission.getResolving());
+    }
+
+    @Test
+    public void slotsHeldPastTheTimeoutAreTakenBack() throws InterruptedException {
+        AdmissionControl admission = new AdmissionControl(100, 0, 100, 0, 2, 0);
+        Object hung = new Object();
+        assertEquals(AdmissionControl.Result.ADMITTED, admission.tryAcquire("1", "10", 1, hung));
+        assertEquals(AdmissionControl.Result.ADMITTED, admission.tryAcquire("1", "10", 1, new Object()));
+        Thread.sleep(1);
+        Object next = new Object();
+        assertEquals(AdmissionControl.Result.ADMITTED, admission.tryAcquire("1", "10", 1, next));
+        assertEquals(2, admission.getExpiredCount());
+        assertEquals(1, admission.getResolving());
+        // the hung command finishing late gives back nothing it still holds
+        admission.release(hung);
+        assertEquals(1, admission.getResolving());
+        admission.release(next);
+        assertEquals(0, admission.getResolving());
+    }
+
+    @Test
+    public void slotsAreKeptWithinTheTimeout() {
+        AdmissionControl admission = new AdmissionControl(100, 0, 100, 0, 1, 60);
+        assertEquals(AdmissionControl.Result.ADMITTED, admission.tryAcquire("1", "10", 1, new Object()));
+        assertEquals(AdmissionControl.Result.BUSY, admission.tryAcquire("2", "10", 1, new Object()));
+        assertEquals(0, admission.getExpiredCount());
+    }
+
+    @Test
+    public void topRejectedStaysBoundedAndKeepsHeavyHitters() {
+        AdmissionControl admission = new AdmissionControl(1, 0, Integer.MAX_VALUE, 0, 1, 60);
+        admission.tryAcquire("flooder", "10", 1, null);
+        for (int i = 0; i < 20000; i++) {
+            String user = String.valueOf(i);
+            admission.tryAcquire(user, "10", 1, null);
+            admission.tryAcquire(user, "10", 1, null);
+            if (i % 10 == 0) {
+                admission.tryAcquire("flooder", "10", 1, null);
+            }
+        }
+
+        Map<String, Long> top = admission.getTopRejectedCounts();
+        assertTrue("tracked " + top.size() + " keys", top.size() <= 20);
+        assertTrue(top.get("user:flooder") >= 2000);
+        assertEquals(Long.valueOf(22000), admission.getRejectedCounts().get("user_limited"));
+    }
+}
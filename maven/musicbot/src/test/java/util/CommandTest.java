@@ -0,0 +1,30 @@
+package util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CommandTest {
+
+    @Test
+    public void countMatchesParse() {
+        String[] messages = {"!play", "!play ", "!play a", "!play  a\tb \n c  ", "!volume 50", "!q\u2003x y"};
+        for (String message : messages) {
+            int nameEnd = message.length();
+            for (int i = 1; i < message.length(); i++) {
+                if (Character.isWhitespace(message.charAt(i))) {
+                    nameEnd = i;
+                    break;
+                }
+            }
+            assertEquals(message, Command.parse(null, message, nameEnd).getArgs().size(),
+                Command.countArgs(message, nameEnd, Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void countStopsPastTheLimit() {
+        assertEquals(2, Command.countArgs("!skip a b c d e", 5, 1));
+        assertEquals(0, Command.countArgs("!skip", 5, 0));
+    }
+}
@@ -0,0 +1,230 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SplitMessageTest {
+
+    private static final int RUNS = 20000;
+    // the legacy split loops forever on some inputs, give up on those after this many chunks; it is only compared
+    // where it terminated with chunks within the limit and without closing empty code blocks
+    private static final int LEGACY_MAX_CHUNKS = 1000;
+
+    @Test
+    public void matchesLegacySplitWhereItWorked() {
+        Random random = new Random(12);
+        int compared = 0;
+        for (int run = 0; run < RUNS; run++) {
+            String message = randomMessage(random);
+            int maxLength = 9 + random.nextInt(60);
+            List<String> legacy = legacySplit(message, maxLength);
+            if (legacy == null || !withinLimit(legacy, maxLength) || closesEmptyBlock(legacy)) {
+                continue;
+            }
+            compared++;
+            assertEquals("limit " + maxLength + " on " + escape(message), legacy,
+                new SplitMessage(message).split(maxLength));
+        }
+        assertTrue("too few comparable inputs: " + compared, compared > RUNS / 4);
+    }
+
+    @Test
+    public void chunksAreNonEmptyAndWithinTheLimit() {
+        Random random = new Random(34);
+        for (int run = 0; run < RUNS; run++) {
+            String message = randomMessage(random);
+            int maxLength = 9 + random.nextInt(60);
+            List<String> splits = new SplitMessage(message).split(maxLength);
+            for (String split : splits) {
+                assertFalse("empty chunk, limit " + maxLength + " on " + escape(message), split.isEmpty());
+                assertTrue("chunk of " + split.length() + ", limit " + maxLength + " on " + escape(message),
+                    split.length() <= maxLength);
+            }
+            assertTrue("lost content or closed an empty block, limit " + maxLength + " on " + escape(message),
+                rebuilds(message, splits));
+        }
+    }
+
+    @Test
+    public void codeLineLongerThanTheLimitIsCutWithinTheLimit() {
+        StringBuilder x = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            x.append('x');
+        }
+        String message = "```\n" + x + "\n```";
+        List<String> splits = new SplitMessage(message).split(2000);
+        assertEquals(3, splits.size());
+        for (String split : splits) {
+            assertTrue(split.length() <= 2000);
+            assertTrue(split.startsWith("```\n"));
+            assertTrue(split.endsWith("\n```"));
+        }
+        assertTrue(rebuilds(message, splits));
+    }
+
+    @Test
+    public void newlineFreeTextSplitsInLinearTime() {
+        String small = newlineFreeText(250000);
+        String large = newlineFreeText(1000000);
+        assertEquals(501, new SplitMessage(large).split(2000).size());
+        // compared with each other rather than a fixed budget: four times the text takes about four times as long
+        // when linear and sixteen times when quadratic, wherever the test runs
+        bestSplitNanos(large);
+        long smallNanos = bestSplitNanos(small);
+        long largeNanos = bestSplitNanos(large);
+        assertTrue("took " + largeNanos + " ns against " + smallNanos + " ns for a quarter of the text",
+            largeNanos < smallNanos * 10);
+    }
+
+    @Test
+    public void emptyMessageHasNoChunks() {
+        assertTrue(new SplitMessage("").split(2000).isEmpty());
+    }
+
+    private static String newlineFreeText(int length) {
+        StringBuilder text = new StringBuilder("\n");
+        for (int i = 0; i < length; i++) {
+            text.append('x');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the fastest of a few runs, which leaves out most of the noise of garbage collection and scheduling
+     */
+    private static long bestSplitNanos(String text) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            new SplitMessage(text).split(2000);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static boolean closesEmptyBlock(List<String> splits) {
+        for (String split : splits) {
+            if (split.endsWith("```\n```")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean withinLimit(List<String> splits, int maxLength) {
+        for (String split : splits) {
+            if (split.length() > maxLength) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the chunks are the message once the tags closing a chunk and reopening the next are dropped, with no
+     * closing tag added right after the tag opening the block. A chunk can also end and the next start with such tags
+     * by itself, so both readings are tried.
+     */
+    private static boolean rebuilds(String message, List<String> splits) {
+        return rebuilds(message, splits, 0, 0, false);
+    }
+
+    private static boolean rebuilds(String message, List<String> splits, int index, int offset, boolean reopened) {
+        if (index == splits.size()) {
+            return offset == message.length();
+        }
+        String split = splits.get(index);
+        if (reopened) {
+            if (!split.startsWith("```\n")) {
+                return false;
+            }
+            split = split.substring(4);
+        }
+        if (message.startsWith(split, offset) && rebuilds(message, splits, index + 1, offset + split.length(), false)) {
+            return true;
+        }
+        if (index + 1 < splits.size() && split.endsWith("\n```")) {
+            String content = split.substring(0, split.length() - 4);
+            // a run of backticks too long to cut past is the only way to end with the opening tag
+            boolean emptyBlock = content.endsWith("```") && !content.matches("`+");
+            return !emptyBlock && message.startsWith(content, offset)
+                && rebuilds(message, splits, index + 1, offset + content.length(), true);
+        }
+        return false;
+    }
+
+    private static String randomMessage(Random random) {
+        int length = random.nextInt(400);
+        StringBuilder message = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            int pick = random.nextInt(20);
+            if (pick < 2) {
+                message.append('\n');
+            } else if (pick < 4) {
+                message.append("```");
+            } else if (pick < 5) {
+                message.append('`');
+            } else if (pick < 7) {
+                message.append(' ');
+            } else {
+                message.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return message.toString();
+    }
+
+    private static String escape(String message) {
+        return "\"" + message.replace("\n", "\\n") + "\"";
+    }
+
+    /**
+     * The implementation SplitMessage replaced, stopped after {@link #LEGACY_MAX_CHUNKS}.
+     *
+     * @return the chunks, or null if it did not terminate
+     */
+    private static List<String> legacySplit(String message, int maxLength) {
+        List<String> splits = new ArrayList<>();
+        String str = message;
+        int end;
+        while (!str.isEmpty()) {
+            if (splits.size() > LEGACY_MAX_CHUNKS) {
+                return null;
+            }
+            int codeBlockTags = countTags(str);
+            if (str.length() <= Math.max(1, maxLength - (codeBlockTags > 0 ? 4 : 0))) {
+                splits.add(str);
+                str = "";
+            } else {
+                end = Math.min(str.length(), str.lastIndexOf("\n", maxLength));
+                if (end <= 0) {
+                    end = Math.min(str.length(), maxLength);
+                }
+                String split = str.substring(0, end);
+                str = str.substring(end);
+                int tagsAfterSplit = countTags(split);
+                if (codeBlockTags > 0 && tagsAfterSplit < codeBlockTags && tagsAfterSplit % 2 != 0) {
+                    split = split + "\n```";
+                    str = "```\n" + str;
+                }
+                splits.add(split);
+            }
+        }
+        return splits;
+    }
+
+    private static int countTags(String str) {
+        int count = 0;
+        int pos = 0;
+        int idx;
+        while ((idx = str.indexOf("```", pos)) != -1) {
+            ++count;
+            pos = idx + 3;
+        }
+        return count;
+    }
+}